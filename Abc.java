@@ -0,0 +1,272 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.util.stream.IntStream;
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Fits birth and death rates to an observed time series by approximate Bayesian computation, with sequential Monte
+ * Carlo (ABC-SMC, population Monte Carlo): the first generation of particles is drawn from uniform priors, and each
+ * later one by resampling the previous generation by weight and perturbing with a Gaussian kernel (twice the weighted
+ * variance of each rate). A proposal is accepted if its run is within the generation's threshold, the median distance
+ * of the previous generation.
+ *
+ * The distance is the Euclidean distance between the species counts of a run and of the observed series, over the
+ * output times of the series. It only grows as a run proceeds, so an observer ends the run (CA.stop) as soon as the
+ * partial distance exceeds the threshold, or once the series has been covered; runs of a batch proceed in parallel.
+ */
+public class Abc {
+
+    SimConfig config;      // algorithm, lattice, maxTime, timestep and initial populations
+    int[][] observed;      // observed counts per output and species
+    double[] lo,hi;        // uniform prior of each rate: birth and death of species 0, then of species 1, ..
+    int particles;         // particles per generation
+    SplittableRandom random;
+    long outputs,fullOutputs;  // outputs simulated, and outputs of the same runs without early rejection
+
+    /**
+     * A parameter vector with its weight and distance
+     */
+    static class Particle {
+	double[] rates;
+	double weight,distance;
+	Particle(double[] rates,double distance){this.rates = rates; this.distance = distance;}
+    }
+
+    /**
+     * @param config     the runs, whose rates are replaced by the proposals
+     * @param observed   observed species counts at each output time, starting at time 0
+     * @param lo         lower bound of the prior of each rate
+     * @param hi         upper bound of the prior of each rate (equal to lo for a fixed rate)
+     * @param particles  particles per generation
+     * @param seed       seed of the proposals and runs
+     */
+    public Abc(SimConfig config,int[][] observed,double[] lo,double[] hi,int particles,long seed){
+	this.config    = config;
+	this.observed  = observed;
+	this.lo        = lo;
+	this.hi        = hi;
+	this.particles = particles;
+	random         = new SplittableRandom(seed);
+    }
+
+    /**
+     * Runs a proposal, aborting it once its distance exceeds epsilon
+     * @param rates    birth and death rate of each species
+     * @param epsilon  acceptance threshold
+     * @param seed     seed of the run
+     * @return         its distance from the observed series, or +infinity if rejected early
+     */
+    double distance(double[] rates,double epsilon,long seed){
+	SimConfig run = config.withSeed(seed);
+	for (int species=0;species<run.species();species++){
+	    run.bRate[species] = rates[2*species];
+	    run.dRate[species] = rates[2*species+1];
+	}
+	CA ca = run.build();
+	double[] sum = new double[1];
+	int[] k = new int[1];
+	double bound = epsilon * epsilon;
+	ca.addObserver((time,population,totalPopulation) -> {
+		if (k[0] >= observed.length) return;
+		for (int species=0;species<population.length;species++){
+		    double d = population[species] - observed[k[0]][species];
+		    sum[0] += d * d;
+		}
+		if (++k[0] == observed.length || sum[0] > bound) ca.stop();
+	    });
+	ca.show();
+	if (k[0] < observed.length && sum[0] <= bound) ca.runUntil(config.maxTime);  // not already decided at time 0
+	synchronized (this){
+	    outputs     += k[0];
+	    fullOutputs += Math.min(observed.length,(long)Math.ceil(config.maxTime / config.tau) + 1);
+	}
+	return sum[0] > bound ? Double.POSITIVE_INFINITY : Math.sqrt(sum[0]);
+    }
+
+    /**
+     * Draws proposals and runs them in parallel batches until enough are accepted
+     * @param previous  the previous generation, or null to draw from the prior
+     * @param epsilon   acceptance threshold
+     * @param out       destination of the progress line
+     * @return          the new generation, weighted
+     */
+    List<Particle> generation(List<Particle> previous,double epsilon,PrintStream out){
+	double[] sigma = previous == null ? null : kernel(previous);
+	List<Particle> accepted = new ArrayList<Particle>();
+	int proposed = 0;
+	outputs = fullOutputs = 0;
+	while (accepted.size() < particles){
+	    int batch = Math.max(particles - accepted.size(),Runtime.getRuntime().availableProcessors());
+	    double[][] rates = new double[batch][];
+	    long[] seed = new long[batch];
+	    for (int b=0;b<batch;b++){
+		rates[b] = previous == null ? prior() : perturb(choose(previous),sigma);
+		seed[b]  = random.nextLong();
+	    }
+	    double[] distance = new double[batch];
+	    IntStream.range(0,batch).parallel().forEach(b -> distance[b] = rates[b] == null ? Double.POSITIVE_INFINITY : distance(rates[b],epsilon,seed[b]));
+	    for (int b=0;b<batch && accepted.size() < particles;b++){
+		proposed++;
+		if (distance[b] <= epsilon) accepted.add(new Particle(rates[b],distance[b]));
+	    }
+	}
+	double total = 0.0;
+	for (Particle p : accepted){
+	    p.weight = previous == null ? 1.0 : 1.0 / mixture(p.rates,previous,sigma);  // uniform prior
+	    total += p.weight;
+	}
+	for (Particle p : accepted) p.weight /= total;
+	out.printf("# epsilon %.3f accepted %d/%d outputs %.3f%n",epsilon,accepted.size(),proposed,(double)outputs / fullOutputs);
+	return accepted;
+    }
+
+    /**
+     * Runs ABC-SMC
+     * @param generations  number of generations after the first (prior) one
+     * @param out          destination of the progress lines and of the final particles
+     * @return             the final generation
+     */
+    List<Particle> run(int generations,PrintStream out){
+	List<Particle> population = generation(null,Double.POSITIVE_INFINITY,out);
+	for (int t=0;t<generations;t++){
+	    double[] distances = population.stream().mapToDouble(p -> p.distance).sorted().toArray();
+	    population = generation(population,distances[distances.length/2],out);
+	}
+	for (Particle p : population){
+	    out.printf("%.6f",p.weight);
+	    for (double rate : p.rates) out.printf(" %.5f",rate);
+	    out.printf(" %.3f%n",p.distance);
+	}
+	return population;
+    }
+
+    /**
+     * @return  rates drawn from the prior
+     */
+    double[] prior(){
+	double[] rates = new double[lo.length];
+	for (int r=0;r<rates.length;r++) rates[r] = lo[r] == hi[r] ? lo[r] : random.nextDouble(lo[r],hi[r]);
+	return rates;
+    }
+
+    /**
+     * @return  a particle of a generation, drawn by weight
+     */
+    Particle choose(List<Particle> population){
+	double u = random.nextDouble();
+	for (Particle p : population) if ((u -= p.weight) < 0) return p;
+	return population.get(population.size()-1);
+    }
+
+    /**
+     * @return  the particle's rates moved by the kernel, or null if outside the prior
+     */
+    double[] perturb(Particle p,double[] sigma){
+	double[] rates = p.rates.clone();
+	for (int r=0;r<rates.length;r++){
+	    if (sigma[r] == 0) continue;
+	    rates[r] += sigma[r] * gaussian();
+	    if (rates[r] < lo[r] || rates[r] > hi[r]) return null;
+	}
+	return rates;
+    }
+
+    double gaussian(){
+	double u = random.nextDouble(), v = random.nextDouble();
+	return Math.sqrt(-2 * Math.log(1 - u)) * Math.cos(2 * Math.PI * v);
+    }
+
+    /**
+     * @return  kernel standard deviation of each rate: twice the weighted variance of the generation, as a variance
+     */
+    double[] kernel(List<Particle> population){
+	double[] sigma = new double[lo.length];
+	for (int r=0;r<sigma.length;r++){
+	    double mean = 0.0, variance = 0.0;
+	    for (Particle p : population) mean += p.weight * p.rates[r];
+	    for (Particle p : population) variance += p.weight * (p.rates[r] - mean) * (p.rates[r] - mean);
+	    sigma[r] = Math.sqrt(2 * variance);
+	}
+	return sigma;
+    }
+
+    /**
+     * @return  density of the rates under the kernel mixture of a generation (up to a constant)
+     */
+    double mixture(double[] rates,List<Particle> population,double[] sigma){
+	double density = 0.0;
+	for (Particle p : population){
+	    double z = 0.0;
+	    for (int r=0;r<rates.length;r++)
+		if (sigma[r] > 0) z += (rates[r] - p.rates[r]) * (rates[r] - p.rates[r]) / (sigma[r] * sigma[r]);
+	    density += p.weight * Math.exp(-z / 2);
+	}
+	return density;
+    }
+
+    /**
+     * Reads an observed series in the format of show(): "<time> <count 1> .. <count m> <total>" per line
+     * @param file  the series, lines starting # are ignored
+     * @param m     number of species
+     * @return      counts per output and species
+     * @throws IOException
+     */
+    static int[][] read(String file,int m) throws IOException {
+	List<int[]> rows = new ArrayList<int[]>();
+	for (String line : Files.readAllLines(Paths.get(file))){
+	    String[] field = line.trim().split("\\s+");
+	    if (line.startsWith("#") || field.length < m + 1) continue;
+	    int[] row = new int[m];
+	    for (int species=0;species<m;species++) row[species] = Integer.parseInt(field[species+1]);
+	    rows.add(row);
+	}
+	return rows.toArray(new int[0][]);
+    }
+
+    /**
+     * Main method - arguments from command line:
+     *   <observed> <particles> <generations> <seed> <algorithm> <GridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>}
+     * where each rate is a value or a uniform prior <lo>:<hi>
+     * @param args  command line e.g.: java Abc observed.txt 200 4 1 Gill 50 20 0.5 200 0.1:1 0.05:0.5
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+	int particles   = Integer.parseInt(args[1]);
+	int generations = Integer.parseInt(args[2]);
+	long seed       = Long.parseLong(args[3]);
+	String[] rest   = Arrays.copyOfRange(args,5,args.length);
+	int m           = (rest.length/3) - 1;
+	double[] lo = new double[2*m], hi = new double[2*m];
+	for (int i=1;i<=m;i++)
+	    for (int r=0;r<2;r++){
+		String[] range = rest[3*i+1+r].split(":");
+		lo[2*(i-1)+r] = Double.parseDouble(range[0]);
+		hi[2*(i-1)+r] = Double.parseDouble(range[range.length-1]);
+		rest[3*i+1+r] = range[0];
+	    }
+	SimConfig config = SimConfig.parse(args[4],rest);
+	new Abc(config,read(args[0],m),lo,hi,particles,seed).run(generations,System.out);
+	System.exit(0);
+    }
+}
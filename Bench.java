@@ -0,0 +1,69 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * Microbenchmark of the per-generation loops: each algorithm is run with one and with two species from a lattice a
+ * third full, first for a warm-up so that the loops are compiled, then timed. Writes "<algorithm> <species>
+ * <site updates per second>" (events per second for Gill). Run with -XX:+UnlockDiagnosticVMOptions -XX:+PrintInlining
+ * (or -XX:+PrintCompilation) to see which calls of the loops the JIT compiler inlined.
+ */
+public class Bench {
+
+    /**
+     * @param algorithm  simulation algorithm
+     * @param n          size of lattice
+     * @param m          number of species
+     * @param time       time to run, in timesteps of 0.1
+     * @return           site updates (events for Gill) per second
+     */
+    static double rate(String algorithm,int n,int m,int time){
+	SimConfig config = new SimConfig(algorithm,n,time,0.1,m);
+	for (int species=0;species<m;species++){
+	    config.initPopn[species] = n*n / (3*m);
+	    config.bRate[species]    = 0.6 - 0.1*species;
+	    config.dRate[species]    = 0.2;
+	}
+	CA ca = config.withSeed(1).build();
+	long start = System.nanoTime();
+	ca.runUntil(time);
+	double seconds = (System.nanoTime() - start) * 1e-9;
+	return (algorithm.equals("Gill") ? ca.events : ca.siteUpdates) / seconds;
+    }
+
+    /**
+     * Main method - arguments from command line: <GridSize> <time> {<algorithm> ..}
+     * @param args  command line e.g.: java Bench 500 20 RFd2S RR1M
+     */
+    public static void main(String[] args) {
+	int n       = Integer.parseInt(args[0]);
+	int time    = Integer.parseInt(args[1]);
+	List<String> algorithms = args.length > 2 ? Arrays.asList(args).subList(2,args.length) : Arrays.asList(SimConfig.algorithms);
+	for (String algorithm : algorithms)
+	    for (int m=1;m<=2;m++){
+		rate(algorithm,n,m,Math.max(1,time/4));  // warm-up
+		System.out.printf("%s %d %.4g%n",algorithm,m,rate(algorithm,n,m,time));
+	    }
+	System.exit(0);
+    }
+}
@@ -1,4 +1,5 @@
 import java.util.*;
+import java.util.stream.IntStream;
 import java.io.*;
 import java.awt.*;
 
@@ -11,6 +12,11 @@ public abstract class CA {
     int[][] B;
     double[] pBirth;      // m birth probabilities   
     double[] pDeath;      // m death probabilities 
+    long[] birthThreshold;  // pBirth as thresholds for Rng.bernoulli
+    long[] deathThreshold;  // pDeath as thresholds for Rng.bernoulli
+    Habitat habitat;      // per-site rate multipliers, null <-> uniform
+    int[][] siteBirth;    // with a habitat, per species and site, birth probabilities as thresholds for Rng.bernoulli31
+    int[][] siteDeath;    // with a habitat, per species and site, death probabilities as thresholds for Rng.bernoulli31
     double[] birthRate;   // birth rate
     double[] deathRate;   // death rate
     int n;                // n X n grid, as a torus
@@ -19,16 +25,35 @@ public abstract class CA {
     double pointSize;
     boolean trace;
     int[] population;     // m population sizes
-    RandomSet freeSpace;  // initially all points on the grid
-    Random gen;
+    IndexedRandomSet freeSpace;  // empty sites, initially all points on the grid
+    Rng gen;
     boolean draw;         // true <-> plot
     double time;
     int maxTime;
+    PrintStream out;      // destination of show() output, null for none
+    ArrayList<PopulationObserver> observers;
+    SpatialStats stats;   // null <-> no spatial statistics
+    SnapshotWriter snapshots;  // null <-> no lattice snapshots
+    EngineMetrics metrics;  // null <-> metrics disabled
+    long events;          // counters for metrics: Gillespie events,
+    long births;          //   attempted births,
+    long nullBirths;      //   births onto an occupied site,
+    long siteUpdates;     //   sites processed by the CA
+    long[] phaseNanos;    // time spent in each phase of a generation
+    long generation;      // generations completed, keys counter-based draws
+    boolean[] dying;      // deaths drawn in parallel, before they are applied
+    double tolerance;     // > 0 <-> adaptive substeps of the discrete time algorithms, see startStep
+    int substeps;         // substeps in the current output interval,
+    int substep;          //   of which done
+    double intervalStart; // time at the start of the current output interval
+    boolean stopped;      // true <-> stop() was called during this runUntil
+    static int threads = Integer.getInteger("gca.threads",1);  // bands of rows for parallel deaths (counter-based Rng only)
     static int empty = -1;
     static Color background = Color.LIGHT_GRAY;
     static Color[] color = {Color.BLUE,Color.RED,Color.YELLOW,Color.GREEN,Color.CYAN,Color.MAGENTA};
     static int[] deltaY = {-1,-1,-1, 0, 0, 1, 1, 1}; // describes neighbourhood
     static int[] deltaX = {-1, 0, 1,-1, 1,-1, 0, 1}; // describes neighbourhood
+    static final int SHUFFLE = 0, DEATHS = 1, BIRTHS = 2, COPY = 3, SWEEP = 4, PHASES = 5; // SWEEP: interleaved births and deaths
 
 
     /**
@@ -37,29 +62,50 @@ public abstract class CA {
      * @param m number of species
      * @param draw flag indicating whether to draw to the screen
      */
-    public CA(int n,int m,boolean draw){
+    public CA(int n,int m,boolean draw){this(n,m,draw,true);}
+
+    /**
+     * Constructs a CA on an nxn grid for m species
+     * @param n dimension 1 of the grid
+     * @param m number of species
+     * @param draw flag indicating whether to draw to the screen
+     * @param sites false if the subclass keeps its own record of empty sites and needs no second lattice (no B, freeSpace)
+     */
+    CA(int n,int m,boolean draw,boolean sites){
 	this.n          = n;
 	this.m          = m;
 	totalPopulation = 0;
 	pointSize       = 0.4;
-	gen             = new Random();
+	gen             = new Rng();
 	A               = new int[n][n];
-	B               = new int[n][n];
+	B               = sites ? new int[n][n] : null;
 	pBirth          = new double[m];
 	pDeath          = new double[m];
+	birthThreshold  = new long[m];
+	deathThreshold  = new long[m];
 	birthRate       = new double[m];
 	deathRate       = new double[m];
 	population      = new int[m];
-	freeSpace       = new RandomSet(n*n);
-	gen             = new Random();
+	freeSpace       = sites ? new IndexedRandomSet(n*n,gen) : null;
 	this.draw       = draw;
+	habitat         = Habitat.fromProperties(n);
 	time            = 0.0;
 	maxTime         = 0;
-	for (int i=0;i<n;i++)
-	    for (int j=0;j<n;j++){
-		freeSpace.add(i*n+j);
-		A[i][j] = B[i][j] = -1;
-	    }
+	out             = System.out;
+	observers       = new ArrayList<PopulationObserver>();
+	stats           = SpatialStats.fromProperties(this);
+	if (stats != null) addObserver(stats);
+	phaseNanos      = new long[PHASES];
+	substeps        = 1;
+	if (Boolean.getBoolean("gca.metrics")){
+	    metrics = new EngineMetrics(getClass().getSimpleName());
+	    metrics.register();
+	}
+	if (sites) freeSpace.addRange(0,n*n);
+	for (int i=0;i<n;i++){
+	    Arrays.fill(A[i],empty);
+	    if (sites) Arrays.fill(B[i],empty);
+	}
     }
 
     /**
@@ -69,14 +115,46 @@ public abstract class CA {
      */
     void add(int species) throws RandomSetException {
 	int x = freeSpace.delete();
+	if (x == IndexedRandomSet.EMPTY) throw new RandomSetException("lattice full");
 	int i = x/n;
 	int j = x%n;
+	if (stats != null) stats.change(A,i,j,empty,species);
 	A[i][j] = species;
 	population[species]++;
 	totalPopulation++;
 	if (draw) plot(i,j,color[species]);
     }
 
+    /**
+     * Populates an empty simulator with a copy of a lattice, e.g. to start several simulators from the same state
+     * @param lattice  species of each site i,j, or empty
+     */
+    public void setLattice(int[][] lattice){
+	if (totalPopulation > 0) throw new IllegalStateException("lattice is not empty");
+	for (int i=0;i<n;i++) System.arraycopy(lattice[i],0,A[i],0,n);
+	rebuild();
+    }
+
+    /**
+     * Recomputes the population sizes, the empty sites and the spatial statistics from A in one pass, after A has been
+     * filled directly, and draws the lattice once
+     */
+    void rebuild(){
+	Arrays.fill(population,0);
+	if (freeSpace != null) freeSpace.clear();
+	for (int i=0;i<n;i++)
+	    for (int j=0;j<n;j++){
+		int species = A[i][j];
+		if (species >= m || species < empty) throw new IllegalArgumentException("no species " + species + " (site " + i + "," + j + ")");
+		if (species != empty) population[species]++;
+		else if (freeSpace != null) freeSpace.add(i*n+j);
+	    }
+	totalPopulation = 0;
+	for (int p : population) totalPopulation += p;
+	if (stats != null) stats.recount(A);
+	if (draw) plot();
+    }
+
     /**
      * Executes a single death of a particule member of a given species at location i,j in the grid TODO X
      * @param species  of the individual to kill
@@ -85,7 +163,9 @@ public abstract class CA {
      * @param j    coordinate
      */
     void death(int species,int[][] X,int i,int j) {
+	if (stats != null) stats.change(X,i,j,species,empty);
 	X[i][j] = empty;
+	freeSpace.add(i*n+j);
 	population[species]--;
 	totalPopulation--;
     }
@@ -96,13 +176,99 @@ public abstract class CA {
      * @param Y  CA lattice output
      */
     void doDeaths(int[][] X,int[][] Y){
+	if (threads > 1 && gen.counterBased()){doDeathsParallel(X,Y); return;}
+	if (uniform()){doDeathsUniform(X,Y); return;}
 	int species = -1;
 	for (int i=0;i<n;i++)
 	    for (int j=0;j<n;j++){
 		species = X[i][j];
-		if (species != empty && gen.nextDouble() <= pDeath[species])
+		if (species == empty) continue;
+		gen.at(DEATHS,generation,i*n+j);
+		if (dies(gen,species,i,j))
+		    death(species,Y,i,j);
+	    }
+    }
+
+    /**
+     * Does deaths on X, new population on Y, as doDeaths for one or two species on a uniform habitat, with the death
+     * thresholds hoisted out of the loop and no virtual calls per site
+     * @param X  CA lattice input
+     * @param Y  CA lattice output
+     */
+    final void doDeathsUniform(int[][] X,int[][] Y){
+	long d0 = deathThreshold[0], d1 = deathThreshold[m-1];
+	for (int i=0;i<n;i++){
+	    int[] row = X[i];
+	    for (int j=0;j<n;j++){
+		int species = row[j];
+		if (species == empty) continue;
+		gen.at(DEATHS,generation,i*n+j);
+		if (gen.bernoulli(species == 0 ? d0 : d1))
 		    death(species,Y,i,j);
 	    }
+	}
+    }
+
+    /**
+     * @return  true if the per-site loops may take their fast path: one or two species, uniform habitat
+     */
+    final boolean uniform(){return m >= 1 && m <= 2 && habitat == null;}
+
+    /**
+     * Does deaths on X, new population on Y, as doDeaths but drawing over bands of rows in parallel. The draws are
+     * keyed by site, and the deaths applied afterwards in site order, so the result is that of doDeaths whatever the
+     * number of bands
+     * @param X  CA lattice input
+     * @param Y  CA lattice output
+     */
+    void doDeathsParallel(int[][] X,int[][] Y){
+	if (dying == null) dying = new boolean[n*n];
+	int bands = Math.min(threads,n);
+	IntStream.range(0,bands).parallel().forEach(b -> {
+		Rng r = gen.fork();
+		for (int i=b*n/bands;i<(b+1)*n/bands;i++)
+		    for (int j=0;j<n;j++){
+			int species = X[i][j];
+			if (species != empty) r.at(DEATHS,generation,i*n+j);
+			dying[i*n+j] = species != empty && dies(r,species,i,j);
+		    }
+	    });
+	for (int x=0;x<n*n;x++)
+	    if (dying[x]) death(X[x/n][x%n],Y,x/n,x%n);
+    }
+
+    /**
+     * Draws whether an individual dies in this timestep
+     * @param species  of the individual
+     * @param i        coordinate
+     * @param j        coordinate
+     * @return         true with probability pDeath[species], adjusted by the habitat of site i,j
+     */
+    boolean dies(int species,int i,int j){return dies(gen,species,i,j);}
+
+    /**
+     * Draws whether an individual dies in this timestep
+     * @param r        source of the draw
+     * @param species  of the individual
+     * @param i        coordinate
+     * @param j        coordinate
+     * @return         true with probability pDeath[species], adjusted by the habitat of site i,j
+     */
+    boolean dies(Rng r,int species,int i,int j){
+	if (habitat == null) return r.bernoulli(deathThreshold[species]);
+	return r.bernoulli31(siteDeath[species][i*n+j]);
+    }
+
+    /**
+     * Draws whether an individual gives birth in this timestep
+     * @param species  of the individual
+     * @param i        coordinate
+     * @param j        coordinate
+     * @return         true with probability pBirth[species], adjusted by the habitat of site i,j
+     */
+    boolean givesBirth(int species,int i,int j){
+	if (habitat == null) return gen.bernoulli(birthThreshold[species]);
+	return gen.bernoulli31(siteBirth[species][i*n+j]);
     }
 
     /**
@@ -114,11 +280,15 @@ public abstract class CA {
      */
     void birth(int species,int[][] X,int i,int j) {
 	int point = chooseRandomNeighbour(i,j);
+	births++;
 	if (X[point/n][point%n] == empty){
+	    if (stats != null) stats.change(X,point/n,point%n,empty,species);
 	    X[point/n][point%n] = species;
+	    freeSpace.remove(point);
 	    population[species]++;
 	    totalPopulation++;
 	}
+	else nullBirths++;
     }
 
     /**
@@ -128,7 +298,7 @@ public abstract class CA {
      * @return    single integer representing the position of the neighbourhood site
      */
     int chooseRandomNeighbour(int i,int j){
-	int select = gen.nextInt(8);
+	int select = gen.nextDirection();
 	int newX = j + deltaX[select];
 	int newY = i + deltaY[select];
 	if (newX == n) newX = 0;
@@ -179,12 +349,15 @@ public abstract class CA {
     }
 
     /**
-     * Outputs time and species counts
+     * Outputs time and species counts, and passes them to the observers
      */
     void show(){
-	System.out.printf("%.5f",time);
-	for (int i=0;i<m;i++) System.out.print(" " + population[i]);
-	System.out.println(" "+ totalPopulation);
+	if (metrics != null) metrics.sample(this);
+	for (PopulationObserver observer : observers) observer.observe(time,population,totalPopulation);
+	if (out == null) return;
+	out.printf("%.5f",time);
+	for (int i=0;i<m;i++) out.print(" " + population[i]);
+	out.println(" "+ totalPopulation);
     }
 
     /**
@@ -196,15 +369,109 @@ public abstract class CA {
 	catch (Exception e) {e.printStackTrace();}
     }
 
+    /**
+     * Starts timing a phase (only when metrics are enabled)
+     * @return  the current time in ns
+     */
+    long tick(){return metrics == null ? 0 : System.nanoTime();}
+
+    /**
+     * Adds the time since a tick to a phase
+     * @param phase  SHUFFLE, DEATHS, BIRTHS, COPY or SWEEP
+     * @param since  value of the previous tick or lap
+     * @return       the current time in ns, to time the next phase
+     */
+    long lap(int phase,long since){
+	if (metrics == null) return 0;
+	long now = System.nanoTime();
+	phaseNanos[phase] += now - since;
+	return now;
+    }
+
+    /**
+     * Starts a timestep of a discrete time algorithm. In adaptive mode (tolerance > 0), each output interval tau is
+     * divided into k substeps, chosen at its start so that the expected number of events of an individual in a substep,
+     * deathRate + birthRate * (1 - density) for the fastest species present, is at most the tolerance
+     * @param tau  output interval
+     */
+    void startStep(double tau){
+	if (tolerance <= 0 || substep > 0) return;
+	double density = (double)totalPopulation / (n*n);
+	double rate    = 0.0;
+	for (int species=0;species<m;species++)
+	    if (population[species] > 0) rate = Math.max(rate,deathRate[species] + birthRate[species] * (1 - density));
+	int k = Math.max(1,(int)Math.ceil(rate * tau / tolerance));
+	if (k != substeps){
+	    substeps = k;
+	    setStep(tau / k);
+	}
+    }
+
+    /**
+     * Ends a timestep of a discrete time algorithm: advances time, and draws and outputs at the end of an output interval
+     * @param tau  output interval
+     */
+    void endStep(double tau){
+	if (++substep < substeps){
+	    time = intervalStart + tau * substep / substeps;
+	    return;
+	}
+	substep       = 0;
+	time          = intervalStart + tau;
+	intervalStart = time;
+	if (draw){plot(); pause(100);}
+	show();
+    }
+
+    /**
+     * Rekeys the visiting order of a generation
+     * @param order  the permutation
+     */
+    void rekey(Permutation order){
+	gen.at(SHUFFLE,generation,-1);
+	order.setKey(gen.nextLong());
+    }
+
+    /**
+     * Applies the settings given to the main methods as system properties: gca.tolerance, gca.order, gca.snapshot
+     */
+    void setFromProperties(){
+	setTolerance(Double.parseDouble(System.getProperty("gca.tolerance","0")));
+	setFeistel(System.getProperty("gca.order","shuffle").equals("feistel"));
+	snapshots = SnapshotWriter.fromProperties(this);
+	if (snapshots != null) addObserver(snapshots);
+    }
+
+    /**
+     * Finishes the snapshot file attached by setFromProperties, if any
+     * @throws IOException
+     */
+    void closeSnapshots() throws IOException {
+	if (snapshots == null) return;
+	removeObserver(snapshots);
+	snapshots.close();
+	snapshots = null;
+    }
+
+    /**
+     * Chooses how a discrete time algorithm orders the sites in each generation (no effect for Gill)
+     * @param feistel  true for a Permutation rekeyed each generation, false to shuffle an array of every site
+     */
+    public void setFeistel(boolean feistel){}
+
+    /**
+     * Sets the length of a timestep, converting rates to probabilities per step (discrete time algorithms)
+     * @param step  length of a timestep
+     */
+    void setStep(double step){}
+
     /**
      * Copies X into Y
      * @param X  input lattice
      * @param Y  output lattice
      */
     void copy(int[][] X,int[][]Y ){
-	for (int i=0;i<n;i++)
-	    for (int j=0;j<n;j++)
-		Y[i][j] = X[i][j];
+	for (int i=0;i<n;i++) System.arraycopy(X[i],0,Y[i],0,n);
     }
 
     /**
@@ -212,6 +479,45 @@ public abstract class CA {
      */
     abstract void doGeneration();
 
+    /**
+     * Advances by one generation (one event for Gill), calling show() at each timestep passed
+     */
+    public void step(){doGeneration();}
+
+    /**
+     * Advances until time t is reached (for Gill, t should be at most maxTime)
+     * @param t  time to run to
+     */
+    public void runUntil(double t){
+	stopped = false;
+	while (time < t && !stopped) doGeneration();
+    }
+
+    /**
+     * Makes the current runUntil() return after the current generation (event for Gill), e.g. when called by an
+     * observer; a later runUntil() continues
+     */
+    public void stop(){stopped = true;}
+
+    /**
+     * Sets the clock, to continue from a state reached by another simulator at an output time (see setLattice)
+     * @param t  time of that output
+     */
+    public void setTime(double t){
+	time          = t;
+	intervalStart = t;
+    }
+
+    /**
+     * Copies the population sizes
+     * @param into  array of at least m elements
+     * @return      into
+     */
+    public int[] getPopulations(int[] into){
+	System.arraycopy(population,0,into,0,m);
+	return into;
+    }
+
     /**
      * Getters and setters
      */
@@ -221,10 +527,33 @@ public abstract class CA {
     public int     size(){return n;}
     public int     getPopulation(){return totalPopulation;}
     public int     getPopulation(int species){return population[species];}
-    public void    setPBirth(int species,double p){pBirth[species] = p;}
-    public void    setPDeath(int species,double p){pDeath[species] = p;}
+    public void    setPBirth(int species,double p){
+	pBirth[species] = p;
+	birthThreshold[species] = Rng.threshold(p);
+	if (habitat == null) return;
+	if (siteBirth == null) siteBirth = new int[m][];
+	siteBirth[species] = habitat.thresholds(p,true);
+    }
+    public void    setPDeath(int species,double p){
+	pDeath[species] = p;
+	deathThreshold[species] = Rng.threshold(p);
+	if (habitat == null) return;
+	if (siteDeath == null) siteDeath = new int[m][];
+	siteDeath[species] = habitat.thresholds(p,false);
+    }
+    public void    setHabitat(Habitat habitat){
+	this.habitat = habitat;
+	for (int species=0;species<m;species++){setPBirth(species,pBirth[species]); setPDeath(species,pDeath[species]);}
+    }
     public void    setBirthRate(int species,double rate){birthRate[species] = rate;}
     public void    setDeathRate(int species,double rate){deathRate[species] = rate;}
     public void    setMaxTime(int maxTime){this.maxTime = maxTime;}
+    public void    setTolerance(double tolerance){this.tolerance = tolerance;}
+    public void    setOutput(PrintStream out){this.out = out;}
+    public void    setSeed(long seed){gen.setSeed(seed);}
+    public void    addObserver(PopulationObserver observer){observers.add(observer);}
+    public void    removeObserver(PopulationObserver observer){observers.remove(observer);}
+    public double  getTime(){return time;}
+    public int     getSpecies(){return m;}
 
 }
@@ -28,7 +28,9 @@ import java.awt.*;
  */
 public abstract class CARM extends CA {
 
-    double tau;           // the unit or measure of time
+    double tau;           // the unit or measure of time (interval between outputs)
+    double step;          // length of a timestep: tau, or a substep of it in adaptive mode
+    long[][] birthCDF;    // per species, Poisson(birthRate*step) distribution function at 0..7 as Rng thresholds
 
     /**
      * Constructs a rates-based, multiple-event CA
@@ -40,6 +42,8 @@ public abstract class CARM extends CA {
     public CARM(int n,int m,double tau,boolean draw){
 	super(n,m,draw);
 	this.tau = tau;
+	step     = tau;
+	birthCDF = new long[m][8];
     }
 
     /**
@@ -49,7 +53,23 @@ public abstract class CARM extends CA {
      */
     public void setDeathRate(int species,double rate){
 	deathRate[species] = rate;
-	pDeath[species] = 1.0 - Math.pow(Math.E,-rate*tau);
+	setPDeath(species,1.0 - Math.pow(Math.E,-rate*step));
+    }
+
+    /**
+     * Sets birth rate and tabulates the distribution of the number of births per timestep (see numberOfBirths)
+     * @param species   identifier of species
+     * @param rate      rate to convert
+     */
+    public void setBirthRate(int species,double rate){
+	birthRate[species] = rate;
+	double L     = 0.0;
+	double factB = 1.0;
+	for (int b=0;b<8;b++){
+	    if (b > 0) factB = factB * b;
+	    L = L + Math.pow(rate*step,(double)b) * Math.pow(Math.E,-rate*step)/factB;
+	    birthCDF[species][b] = Rng.threshold(L);
+	}
     }
 
     /**
@@ -63,11 +83,54 @@ public abstract class CARM extends CA {
 	double factB = 1.0;
 	for (int b=0;b<8;b++){
 	    if (b > 0) factB = factB * b;
-	    L = L + Math.pow(lambda*tau,(double)b) * Math.pow(Math.E,-lambda*tau)/factB;
+	    L = L + Math.pow(lambda*step,(double)b) * Math.pow(Math.E,-lambda*step)/factB;
 	    if (L >= U) return b;
 	}
 	return 8; // size of Moore neighbourhood
     }
 
+    /**
+     * Draws the number of births of an individual, at the birth rate of its species adjusted by the habitat of its site
+     * @param species  identifier of species
+     * @param i        coordinate
+     * @param j        coordinate
+     * @return         the number of births
+     */
+    int numberOfBirths(int species,int i,int j){
+	if (habitat == null) return numberOfBirths(species);
+	return numberOfBirths(birthRate[species] * habitat.birth(i*n+j));
+    }
+
+    /**
+     * Draws the number of births of an individual of given species (as numberOfBirths(birthRate[species]), by table)
+     * @param species  identifier of species
+     * @return         the number of births
+     */
+    int numberOfBirths(int species){return numberOfBirths(birthCDF[species]);}
+
+    /**
+     * Draws a number of births from a tabulated distribution function
+     * @param cdf  birthCDF of a species
+     * @return     the number of births
+     */
+    final int numberOfBirths(long[] cdf){
+	long U = gen.nextBits();
+	for (int b=0;b<8;b++)
+	    if (cdf[b] >= U) return b;
+	return 8; // size of Moore neighbourhood
+    }
+
+    /**
+     * Sets the length of a timestep and converts the rates to probabilities per step
+     * @param step  length of a timestep
+     */
+    void setStep(double step){
+	this.step = step;
+	for (int species=0;species<m;species++){
+	    setBirthRate(species,birthRate[species]);
+	    setDeathRate(species,deathRate[species]);
+	}
+    }
+
 }
 
@@ -28,7 +28,8 @@ import java.awt.*;
  */
 public abstract class CARS extends CA {
 
-    double tau;           // the unit or measure of time
+    double tau;           // the unit or measure of time (interval between outputs)
+    double step;          // length of a timestep: tau, or a substep of it in adaptive mode
 
     /**
      * Constructs a rates-based, single-event CA
@@ -40,6 +41,7 @@ public abstract class CARS extends CA {
     public CARS(int n,int m,double tau,boolean draw){
 	super(n,m,draw);
 	this.tau = tau;
+	step     = tau;
     }
 
     /**
@@ -49,7 +51,7 @@ public abstract class CARS extends CA {
      */
     public void setDeathRate(int species,double rate){
 	deathRate[species] = rate;
-	pDeath[species] = 1.0 - Math.pow(Math.E,-rate*tau);
+	setPDeath(species,1.0 - Math.pow(Math.E,-rate*step));
     }
 
     /**
@@ -59,7 +61,19 @@ public abstract class CARS extends CA {
      */
     public void setBirthRate(int species,double rate){
 	birthRate[species] = rate;
-	pBirth[species] = 1.0 - Math.pow(Math.E,-rate*tau);
+	setPBirth(species,1.0 - Math.pow(Math.E,-rate*step));
+    }
+
+    /**
+     * Sets the length of a timestep and converts the rates to probabilities per step
+     * @param step  length of a timestep
+     */
+    void setStep(double step){
+	this.step = step;
+	for (int species=0;species<m;species++){
+	    setBirthRate(species,birthRate[species]);
+	    setDeathRate(species,deathRate[species]);
+	}
     }
 
 }
@@ -0,0 +1,122 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/**
+ * Runs every algorithm (Gill, RFd2S, RFd2M, RR1S, RR1M) from the same initial lattice and merges their outputs into
+ * one time series per replicate. The initial lattice of each replicate is drawn once and copied into the five
+ * simulators, which run concurrently.
+ *
+ * Each output line is "<replicate> <time>" followed by, for each algorithm in turn, its species counts and total as
+ * in show(). A header line "# replicate time <algorithms>" comes first.
+ */
+public class Compare {
+
+    SimConfig config;
+    int replicates;
+    ExecutorService pool;
+
+    /**
+     * @param config      the configuration (algorithm is ignored; if seeded, replicate r uses seed+r)
+     * @param replicates  number of replicates
+     * @param threads     number of simulators to run at once
+     */
+    public Compare(SimConfig config,int replicates,int threads){
+	this.config     = config;
+	this.replicates = replicates;
+	pool            = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Runs one simulator to maxTime
+     * @param algorithm  name of the simulation algorithm
+     * @param lattice    initial lattice
+     * @param seed       seed of the simulator
+     * @return           population sizes and total at each output, as written by show()
+     */
+    ArrayList<int[]> run(String algorithm,int[][] lattice,long seed){
+	SimConfig c = config.withAlgorithm(algorithm);
+	if (config.seeded) c = c.withSeed(seed);
+	CA ca = c.build(lattice);
+	ArrayList<int[]> series = new ArrayList<int[]>();
+	int m = c.species();
+	ca.addObserver((time,population,totalPopulation) -> {
+		int[] row = Arrays.copyOf(population,m+1);
+		row[m] = totalPopulation;
+		series.add(row);
+	    });
+	ca.show();
+	ca.runUntil(c.maxTime);
+	return series;
+    }
+
+    /**
+     * Runs all replicates, writing each as soon as it and the replicates before it are complete
+     * @param out  destination of the output
+     * @throws Exception  from a simulator
+     */
+    void run(PrintStream out) throws Exception {
+	String[] algorithms = SimConfig.algorithms;
+	out.println("# replicate time " + String.join(" ",algorithms));
+	ArrayList<List<Future<ArrayList<int[]>>>> runs = new ArrayList<List<Future<ArrayList<int[]>>>>();
+	for (int r=0;r<replicates;r++){
+	    long seed = config.seed + r;
+	    int[][] lattice = config.lattice(config.seeded ? seed : new Random().nextLong());
+	    List<Future<ArrayList<int[]>>> futures = new ArrayList<Future<ArrayList<int[]>>>();
+	    for (String algorithm : algorithms) futures.add(pool.submit(() -> run(algorithm,lattice,seed)));
+	    runs.add(futures);
+	}
+	for (int r=0;r<replicates;r++){
+	    ArrayList<ArrayList<int[]>> series = new ArrayList<ArrayList<int[]>>();
+	    for (Future<ArrayList<int[]>> f : runs.get(r)) series.add(f.get());
+	    runs.set(r,null);
+	    int outputs = Integer.MAX_VALUE;  // the algorithms may differ by an output at maxTime
+	    for (ArrayList<int[]> s : series) outputs = Math.min(outputs,s.size());
+	    StringBuilder line = new StringBuilder();
+	    for (int k=0;k<outputs;k++){
+		line.setLength(0);
+		line.append(r).append(' ').append(String.format("%.5f",k * config.tau));
+		for (ArrayList<int[]> s : series)
+		    for (int count : s.get(k)) line.append(' ').append(count);
+		out.println(line);
+	    }
+	}
+	pool.shutdown();
+    }
+
+    /**
+     * Main method - arguments from command line: <replicates> <GridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>} {<seed>}
+     * @param args  command line e.g.: java Compare 10 100 1000 0.5 1000 1.0 0.1 1000 0.5 0.05 1
+     * @throws Exception  from a simulator
+     */
+    public static void main(String[] args) throws Exception {
+	int replicates   = Integer.parseInt(args[0]);
+	String[] rest    = Arrays.copyOfRange(args,1,args.length);
+	SimConfig config = SimConfig.parse("Compare",rest);
+	if (rest.length % 3 == 1) config = config.withSeed(Long.parseLong(rest[rest.length-1]));
+	int threads = Math.min(SimConfig.algorithms.length,Runtime.getRuntime().availableProcessors());
+	new Compare(config,replicates,threads).run(System.out);
+	System.exit(0);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.lang.management.*;
+import javax.management.*;
+
+/**
+ * Performance counters of a simulator, sampled at each show() and published through JMX and as JFR GenerationEvents
+ *
+ * The simulator only increments plain counters (see CA); this class turns them into rates at output time, so the
+ * cost on the hot path is a few additions per event. Allocation is that of the simulating thread, GC counts and
+ * times are those of the whole JVM.
+ */
+public class EngineMetrics implements EngineMetricsMBean {
+
+    String algorithm;
+    volatile double time;
+    volatile long generations;           // outputs, i.e. generations for the CA and timesteps for Gill
+    volatile long events;
+    volatile long births;
+    volatile long nullBirths;            // births onto an occupied site
+    volatile long siteUpdates;
+    volatile double eventsPerSecond;
+    volatile double siteUpdatesPerSecond;
+    volatile long[] phaseNanos;          // shuffle, deaths, births, copy, sweep (see CA)
+    volatile long allocatedPerGeneration;
+    volatile long gcCount;
+    volatile long gcMillis;
+
+    long lastNanos;                      // state at the previous sample, for rates and JFR deltas
+    long lastEvents;
+    long lastNullBirths;
+    long lastSiteUpdates;
+    long lastAllocated;
+    long[] lastPhaseNanos;
+    GenerationEvent event;               // begun at the previous sample
+    com.sun.management.ThreadMXBean threads;
+
+    /**
+     * Constructs metrics for a simulator
+     * @param algorithm  name of the simulation algorithm
+     */
+    public EngineMetrics(String algorithm){
+	this.algorithm = algorithm;
+	phaseNanos     = new long[CA.PHASES];
+	lastPhaseNanos = new long[CA.PHASES];
+	lastNanos      = System.nanoTime();
+	threads        = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+	lastAllocated  = allocated();
+	long[] gc      = gc();
+	gcCount        = gc[0];
+	gcMillis       = gc[1];
+	event          = new GenerationEvent();
+	event.begin();
+    }
+
+    /**
+     * Registers with the platform MBean server as gca:type=Engine,thread=<current thread>, replacing the metrics of
+     * the previous simulator run on this thread
+     */
+    void register(){
+	try {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName name = new ObjectName("gca:type=Engine,thread=" + ObjectName.quote(Thread.currentThread().getName()));
+	    synchronized (EngineMetrics.class){
+		if (server.isRegistered(name)) server.unregisterMBean(name);
+		server.registerMBean(this,name);
+	    }
+	}
+	catch (JMException e) {e.printStackTrace();}
+    }
+
+    long allocated(){return threads.getThreadAllocatedBytes(Thread.currentThread().getId());}
+
+    /**
+     * @return  collection count and time (ms) summed over the garbage collectors of the JVM
+     */
+    static long[] gc(){
+	long[] total = new long[2];
+	for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+	    total[0] = total[0] + Math.max(0,gc.getCollectionCount());
+	    total[1] = total[1] + Math.max(0,gc.getCollectionTime());
+	}
+	return total;
+    }
+
+    /**
+     * Takes the counters of a simulator, called from show()
+     * @param ca  the simulator
+     */
+    void sample(CA ca){
+	long now       = System.nanoTime();
+	long allocated = allocated();
+	long[] gc      = gc();
+	long count     = gc[0];
+	long millis    = gc[1];
+	double seconds = (now - lastNanos) / 1e9;
+	if (seconds > 0){
+	    eventsPerSecond      = (ca.events - lastEvents) / seconds;
+	    siteUpdatesPerSecond = (ca.siteUpdates - lastSiteUpdates) / seconds;
+	}
+	time                   = ca.time;
+	events                 = ca.events;
+	births                 = ca.births;
+	nullBirths             = ca.nullBirths;
+	siteUpdates            = ca.siteUpdates;
+	phaseNanos             = ca.phaseNanos.clone();
+	allocatedPerGeneration = allocated - lastAllocated;
+
+	event.end();
+	if (event.shouldCommit()){
+	    event.algorithm      = algorithm;
+	    event.time           = ca.time;
+	    event.generations    = generations;
+	    event.events         = ca.events - lastEvents;
+	    event.nullBirths     = ca.nullBirths - lastNullBirths;
+	    event.siteUpdates    = ca.siteUpdates - lastSiteUpdates;
+	    event.shuffleNanos   = phaseNanos[CA.SHUFFLE] - lastPhaseNanos[CA.SHUFFLE];
+	    event.deathNanos     = phaseNanos[CA.DEATHS] - lastPhaseNanos[CA.DEATHS];
+	    event.birthNanos     = phaseNanos[CA.BIRTHS] - lastPhaseNanos[CA.BIRTHS];
+	    event.copyNanos      = phaseNanos[CA.COPY] - lastPhaseNanos[CA.COPY];
+	    event.sweepNanos     = phaseNanos[CA.SWEEP] - lastPhaseNanos[CA.SWEEP];
+	    event.allocatedBytes = allocatedPerGeneration;
+	    event.gcCount        = count - gcCount;
+	    event.gcMillis       = millis - gcMillis;
+	    event.commit();
+	}
+	event = new GenerationEvent();
+	event.begin();
+
+	gcCount         = count;
+	gcMillis        = millis;
+	generations++;
+	lastNanos       = now;
+	lastEvents      = ca.events;
+	lastNullBirths  = ca.nullBirths;
+	lastSiteUpdates = ca.siteUpdates;
+	lastAllocated   = allocated;
+	lastPhaseNanos  = phaseNanos;
+    }
+
+    /**
+     * Getters (JMX attributes)
+     */
+    public String getAlgorithm(){return algorithm;}
+    public double getTime(){return time;}
+    public long   getGenerations(){return generations;}
+    public long   getEvents(){return events;}
+    public double getEventsPerSecond(){return eventsPerSecond;}
+    public double getNullBirthRatio(){long b = births; return b == 0 ? 0.0 : (double)nullBirths / b;}
+    public long   getSiteUpdates(){return siteUpdates;}
+    public double getSiteUpdatesPerSecond(){return siteUpdatesPerSecond;}
+    public long   getShuffleNanos(){return phaseNanos[CA.SHUFFLE];}
+    public long   getDeathNanos(){return phaseNanos[CA.DEATHS];}
+    public long   getBirthNanos(){return phaseNanos[CA.BIRTHS];}
+    public long   getCopyNanos(){return phaseNanos[CA.COPY];}
+    public long   getSweepNanos(){return phaseNanos[CA.SWEEP];}
+    public long   getAllocatedBytesPerGeneration(){return allocatedPerGeneration;}
+    public long   getGcCount(){return gcCount;}
+    public long   getGcMillis(){return gcMillis;}
+}
@@ -0,0 +1,310 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * Ensemble of K replicates of RFd2S or RR1S on a small lattice, advanced together. The lattices are stored
+ * interleaved (structure of arrays: replicate k of site s at s*K+k) and each replicate has its own xorshift128+
+ * generator. The deaths of RFd2S, which do not depend on the visiting order, are drawn for all K replicates of a site
+ * at once, with the generators advanced in one straight loop over k (draw()). Each replicate visits the sites in its
+ * own random order, shuffled with its own generator, so the replicates are independent runs of the algorithm.
+ */
+public class Ensemble {
+
+    static final byte EMPTY = -1;
+
+    int n;                // n X n grid, as a torus
+    int m;                // m species
+    int K;                // number of replicates
+    int N;                // number of sites
+    boolean async;        // RR1S (single array, births and deaths interleaved) rather than RFd2S
+    double tau;
+    double time;
+    byte[] A,B;           // lattices, replicate k of site s at s*K+k
+    int[] neighbour;      // site s -> 8 neighbouring sites at 8*s
+    long[] birthThreshold,deathThreshold;  // by species+1, entry 0 (empty) never passes
+    int[] population;     // replicate k, species i at k*m+i
+    int[] totalPopulation;
+    long[] s0,s1;         // xorshift128+ state of each replicate
+    long[] r;             // last draw of each replicate
+    int[] order;          // per replicate, sites (RFd2S) or site events (RR1S, +-(site+1)) in visiting order, at k*L
+    int L;                // length of each replicate's order
+    Rng gen;              // for the initial population
+    PrintStream out;
+
+    /**
+     * Constructs an ensemble
+     * @param async  true for RR1S, false for RFd2S
+     * @param n      size of lattice
+     * @param m      number of species
+     * @param tau    length of timestep
+     * @param K      number of replicates
+     */
+    public Ensemble(boolean async,int n,int m,double tau,int K){
+	if (m > Byte.MAX_VALUE) throw new IllegalArgumentException("too many species");
+	this.async      = async;
+	this.n          = n;
+	this.m          = m;
+	this.tau        = tau;
+	this.K          = K;
+	N               = n*n;
+	A               = new byte[N*K];
+	B               = async ? null : new byte[N*K];
+	neighbour       = new int[8*N];
+	birthThreshold  = new long[m+1];
+	deathThreshold  = new long[m+1];
+	birthThreshold[0] = deathThreshold[0] = -1;
+	population      = new int[K*m];
+	totalPopulation = new int[K];
+	s0              = new long[K];
+	s1              = new long[K];
+	r               = new long[K];
+	L               = async ? 2*N : N;
+	order           = new int[K*L];
+	gen             = new Rng();
+	out             = System.out;
+	Arrays.fill(A,EMPTY);
+	for (int i=0;i<n;i++)
+	    for (int j=0;j<n;j++)
+		for (int d=0;d<8;d++)
+		    neighbour[8*(i*n+j)+d] = ((i+CA.deltaY[d]+n)%n)*n + (j+CA.deltaX[d]+n)%n;
+	setSeed(gen.nextLong());
+    }
+
+    /**
+     * Constructs an ensemble for a configuration of RFd2S or RR1S, and seeds the initial population of every replicate
+     * @param config  the configuration (if seeded, the seed of the ensemble)
+     * @param K       number of replicates
+     */
+    public Ensemble(SimConfig config,int K){
+	this(async(config.algorithm),config.n,config.species(),config.tau,K);
+	if (config.seeded) setSeed(config.seed);
+	for (int species=0;species<m;species++){
+	    setBirthRate(species,config.bRate[species]);
+	    setDeathRate(species,config.dRate[species]);
+	    for (int j=0;j<config.initPopn[species];j++) add(species);
+	}
+    }
+
+    static boolean async(String algorithm){
+	if (algorithm.equals("RR1S"))  return true;
+	if (algorithm.equals("RFd2S")) return false;
+	throw new IllegalArgumentException("no ensemble for " + algorithm);
+    }
+
+    /**
+     * Seeds the generator of each replicate (by SplitMix64 from seed) and of the initial population
+     * @param seed  the seed
+     */
+    public void setSeed(long seed){
+	gen.setSeed(seed);
+	long x = seed;
+	for (int k=0;k<K;k++){
+	    s0[k] = splitMix(x += 0x9E3779B97F4A7C15L);
+	    s1[k] = splitMix(x += 0x9E3779B97F4A7C15L);
+	    if ((s0[k] | s1[k]) == 0) s1[k] = 1;
+	}
+    }
+
+    static long splitMix(long z){
+	z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+	z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+	return z ^ (z >>> 31);
+    }
+
+    /**
+     * Draws the next value of every replicate's generator into r (the loop the JIT vectorises)
+     */
+    void draw(){
+	for (int k=0;k<K;k++){
+	    long x = s0[k], y = s1[k];
+	    s0[k] = y;
+	    x ^= x << 23;
+	    x ^= x >>> 17;
+	    x ^= y ^ (y >>> 26);
+	    s1[k] = x;
+	    r[k]  = x + y;
+	}
+    }
+
+    /**
+     * Advances the generator of one replicate
+     * @param k  the replicate
+     * @return   its next value
+     */
+    long next(int k){
+	long x = s0[k], y = s1[k];
+	s0[k] = y;
+	x ^= x << 23;
+	x ^= x >>> 17;
+	x ^= y ^ (y >>> 26);
+	s1[k] = x;
+	return x + y;
+    }
+
+    /**
+     * Shuffles the visiting order of one replicate (Fisher-Yates, indices by multiply-shift of 32 random bits)
+     * @param k  the replicate
+     */
+    void shuffle(int k){
+	int base = k*L;
+	for (int i=L;i>1;i--){
+	    int j = (int)(((next(k) >>> 32) * i) >>> 32);
+	    int t = order[base+i-1];
+	    order[base+i-1] = order[base+j];
+	    order[base+j]   = t;
+	}
+    }
+
+    /**
+     * Adds a member of a species to every replicate, each at a random empty site
+     * @param species  identifier of species to add
+     * @throws RandomSetException
+     */
+    void add(int species) throws RandomSetException {
+	for (int k=0;k<K;k++){
+	    if (totalPopulation[k] == N) throw new RandomSetException("lattice full");
+	    int s;
+	    do s = gen.nextInt(N); while (A[s*K+k] != EMPTY);
+	    A[s*K+k] = (byte)species;
+	    population[k*m+species]++;
+	    totalPopulation[k]++;
+	}
+    }
+
+    /**
+     * Death tests of all replicates at a site: individuals in X die in Y
+     * @param s  the site
+     */
+    void deaths(byte[] X,byte[] Y,int s){
+	int base = s*K;
+	draw();
+	for (int k=0;k<K;k++){
+	    int species = X[base+k];
+	    if ((r[k] >>> 11) <= deathThreshold[species+1]){
+		Y[base+k] = EMPTY;
+		population[k*m+species]--;
+		totalPopulation[k]--;
+	    }
+	}
+    }
+
+    /**
+     * Death test of one replicate at a site (RR1S)
+     * @param s  the site
+     * @param k  the replicate
+     */
+    void death(int s,int k){
+	int species = A[s*K+k];
+	if ((next(k) >>> 11) <= deathThreshold[species+1]){
+	    A[s*K+k] = EMPTY;
+	    population[k*m+species]--;
+	    totalPopulation[k]--;
+	}
+    }
+
+    /**
+     * Birth test of one replicate at a site: an individual in X gives birth onto a random neighbouring site of Y,
+     * if it is empty
+     * @param s  the site
+     * @param k  the replicate
+     */
+    void birth(byte[] X,byte[] Y,int s,int k){
+	int species = X[s*K+k];
+	long x = next(k);
+	if ((x >>> 11) <= birthThreshold[species+1]){
+	    int point = neighbour[8*s + ((int)(x >>> 8) & 7)]*K + k;  // direction from bits the test does not use
+	    if (Y[point] == EMPTY){
+		Y[point] = (byte)species;
+		population[k*m+species]++;
+		totalPopulation[k]++;
+	    }
+	}
+    }
+
+    /**
+     * Carries out a single generation of every replicate
+     */
+    public void doGeneration(){
+	if (async){
+	    for (int k=0;k<K;k++){
+		for (int i=0;i<N;i++){order[k*L+i] = i+1; order[k*L+N+i] = -(i+1);}
+		shuffle(k);
+		for (int e=k*L;e<(k+1)*L;e++){
+		    int event = order[e];
+		    if (event < 0) death(-event-1,k);
+		    else birth(A,A,event-1,k);
+		}
+	    }
+	}
+	else {
+	    System.arraycopy(A,0,B,0,A.length);
+	    for (int s=0;s<N;s++) deaths(A,B,s);
+	    for (int k=0;k<K;k++){
+		for (int i=0;i<N;i++) order[k*L+i] = i;
+		shuffle(k);
+		for (int e=k*L;e<(k+1)*L;e++) birth(B,B,order[e],k);
+	    }
+	    byte[] t = A; A = B; B = t;
+	}
+	time = time + tau;
+	show();
+    }
+
+    /**
+     * Outputs, for each replicate, its index followed by the time and species counts as CA.show()
+     */
+    void show(){
+	if (out == null) return;
+	for (int k=0;k<K;k++){
+	    out.printf("%d %.5f",k,time);
+	    for (int i=0;i<m;i++) out.print(" " + population[k*m+i]);
+	    out.println(" " + totalPopulation[k]);
+	}
+    }
+
+    /**
+     * Getters and setters
+     */
+    public void setBirthRate(int species,double rate){birthThreshold[species+1] = Rng.threshold(1.0 - Math.pow(Math.E,-rate*tau));}
+    public void setDeathRate(int species,double rate){deathThreshold[species+1] = Rng.threshold(1.0 - Math.pow(Math.E,-rate*tau));}
+    public void setOutput(PrintStream out){this.out = out;}
+    public int  getPopulation(int replicate,int species){return population[replicate*m+species];}
+    public int  getPopulation(int replicate){return totalPopulation[replicate];}
+    public double getTime(){return time;}
+
+    /**
+     * Main method - arguments from command line: <replicates> <algorithm> <GridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>} {<seed>}
+     * @param args  command line e.g.: java Ensemble 256 RFd2S 100 1000 0.5 1000 1.0 0.1
+     */
+    public static void main(String[] args) {
+	int K         = Integer.parseInt(args[0]);
+	String[] rest = Arrays.copyOfRange(args,2,args.length);
+	SimConfig config = SimConfig.parse(args[1],rest);
+	if (rest.length % 3 == 1) config = config.withSeed(Long.parseLong(rest[rest.length-1]));
+	Ensemble ensemble = new Ensemble(config,K);
+	ensemble.show();
+	while (ensemble.time < config.maxTime) ensemble.doGeneration();
+	System.exit(0);
+    }
+}
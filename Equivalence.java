@@ -0,0 +1,276 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.util.stream.IntStream;
+import java.io.*;
+
+/**
+ * Statistical equivalence test of two engines. Faster engines (other random number generators, ensembles, parallel
+ * deaths) give different outputs for the same seed, so they are checked against a reference engine by distribution:
+ * both are run for many seeds, and the population of each species and the total population at a quarter, half,
+ * three quarters and all of maxTime are compared with a two-sample Kolmogorov-Smirnov test and a chi-square test of
+ * homogeneity. The engines fail if any test is significant at family-wise level ALPHA (Bonferroni).
+ *
+ * An engine is named by an algorithm (Gill, RFd2S, RFd2M, RR1S, RR1M) or Ensemble.RFd2S or Ensemble.RR1S, optionally
+ * followed by :rng to use another random number algorithm, e.g. RFd2S:Philox. Replicates run in parallel, or as
+ * the independent replicates of one ensemble.
+ */
+public class Equivalence {
+
+    static final double ALPHA = 0.01;
+    static final int CHECKS = 4;   // checkpoints at maxTime/4, maxTime/2, ..
+
+    SimConfig config;
+    int replicates;
+    int[] at;             // output number of each checkpoint
+
+    /**
+     * @param config      the configuration (algorithm is ignored; if seeded, the seed of the first replicate)
+     * @param replicates  number of runs of each engine
+     */
+    public Equivalence(SimConfig config,int replicates){
+	this.config     = config;
+	this.replicates = replicates;
+	int outputs     = (int)Math.round(config.maxTime / config.tau);
+	at = new int[CHECKS];
+	for (int c=0;c<CHECKS;c++) at[c] = outputs * (c+1) / CHECKS;
+    }
+
+    /**
+     * Runs an engine for every replicate
+     * @param engine  engine name, see above
+     * @param seed    seed of the first replicate (replicate r uses seed+r)
+     * @return        value[c][q][r] of quantity q (species, then total) at checkpoint c in replicate r
+     */
+    double[][][] sample(String engine,long seed){
+	String[] name = engine.split(":");
+	int m = config.species();
+	double[][][] value = new double[CHECKS][m+1][replicates];
+	for (double[][] v : value) for (double[] w : v) Arrays.fill(w,Double.NaN);
+	if (name[0].startsWith("Ensemble.")){
+	    SimConfig c = config.withAlgorithm(name[0].substring(9));
+	    if (name.length > 1) throw new IllegalArgumentException("Ensemble has its own generators");
+	    Ensemble ensemble = new Ensemble(c.withSeed(seed),replicates);  // one replicate per sample
+	    ensemble.setOutput(null);
+	    int check = 0;
+	    for (int k=0;check<CHECKS;k++){   // k generations done
+		for (;check < CHECKS && k == at[check];check++)
+		    for (int r=0;r<replicates;r++){
+			for (int q=0;q<m;q++) value[check][q][r] = ensemble.getPopulation(r,q);
+			value[check][m][r] = ensemble.getPopulation(r);
+		    }
+		if (check < CHECKS) ensemble.doGeneration();
+	    }
+	}
+	else {
+	    SimConfig c = config.withAlgorithm(name[0]);
+	    if (name.length > 1) c.rng = name[1];
+	    SimConfig base = c;
+	    IntStream.range(0,replicates).parallel().forEach(r -> {
+		    CA ca = base.withSeed(seed + r).build();
+		    int[] outputs = new int[1];
+		    ca.addObserver((time,population,totalPopulation) -> {
+			    for (int check=0;check<CHECKS;check++)
+				if (outputs[0] == at[check]){
+				    for (int q=0;q<m;q++) value[check][q][r] = population[q];
+				    value[check][m][r] = totalPopulation;
+				}
+			    outputs[0]++;
+			});
+		    ca.show();
+		    ca.runUntil(base.maxTime);
+		});
+	}
+	return value;
+    }
+
+    /**
+     * Runs both engines and writes one line per test, "<time> <quantity> <mean> <mean> KS <D> <p> chi2 <x> <df> <p>
+     * ok|FAIL" (quantity is a species number or total), then "# PASS" or "# FAIL"
+     * @param reference  engine name
+     * @param candidate  engine name
+     * @param out        destination of the report
+     * @return           true if no test is significant
+     */
+    boolean test(String reference,String candidate,PrintStream out){
+	long seed = config.seeded ? config.seed : new Random().nextLong();
+	double[][][] x = sample(reference,seed);
+	double[][][] y = sample(candidate,seed + replicates);
+	int m = config.species();
+	double level = ALPHA / (2 * CHECKS * (m+1));
+	int failures = 0;
+	out.printf("# %s vs %s, %d replicates, %s, significance level %.3g per test%n",reference,candidate,replicates,config,level);
+	for (int c=0;c<CHECKS;c++)
+	    for (int q=0;q<=m;q++){
+		double[] a = x[c][q].clone(), b = y[c][q].clone();
+		if (Double.isNaN(a[0] + b[0])) throw new IllegalStateException("checkpoint " + c + " not reached");
+		Arrays.sort(a);
+		Arrays.sort(b);
+		double d    = ks(a,b);
+		double pKS  = ksP(d,a.length,b.length);
+		double[] cs = chiSquare(a,b);
+		boolean ok  = pKS >= level && cs[2] >= level;
+		if (!ok) failures++;
+		out.printf("%.5f %s %.2f %.2f KS %.4f %.4g chi2 %.2f %d %.4g %s%n",at[c] * config.tau,q == m ? "total" : "" + q,
+			   mean(a),mean(b),d,pKS,cs[0],(int)cs[1],cs[2],ok ? "ok" : "FAIL");
+	    }
+	out.println(failures == 0 ? "# PASS" : "# FAIL " + failures + " of " + 2*CHECKS*(m+1) + " tests");
+	return failures == 0;
+    }
+
+    static double mean(double[] a){
+	double s = 0;
+	for (double v : a) s += v;
+	return s / a.length;
+    }
+
+    /**
+     * @param a  sorted sample
+     * @param b  sorted sample
+     * @return   Kolmogorov-Smirnov statistic, the largest difference of the empirical distribution functions
+     */
+    static double ks(double[] a,double[] b){
+	int i = 0, j = 0;
+	double d = 0;
+	while (i < a.length && j < b.length){
+	    double v = Math.min(a[i],b[j]);
+	    while (i < a.length && a[i] == v) i++;
+	    while (j < b.length && b[j] == v) j++;
+	    d = Math.max(d,Math.abs((double)i/a.length - (double)j/b.length));
+	}
+	return d;
+    }
+
+    /**
+     * @return  asymptotic p-value of the two-sample KS statistic d (conservative for ties)
+     */
+    static double ksP(double d,int n1,int n2){
+	double ne     = (double)n1 * n2 / (n1 + n2);
+	double lambda = (Math.sqrt(ne) + 0.12 + 0.11/Math.sqrt(ne)) * d;
+	double a2 = -2 * lambda * lambda, fac = 2, sum = 0, previous = 0;
+	for (int k=1;k<=100;k++){
+	    double term = fac * Math.exp(a2 * k * k);
+	    sum += term;
+	    if (Math.abs(term) <= 1e-3 * previous || Math.abs(term) <= 1e-8 * sum) return Math.min(1,Math.max(0,sum));
+	    fac = -fac;
+	    previous = Math.abs(term);
+	}
+	return 1;  // no convergence: lambda is near 0
+    }
+
+    /**
+     * Chi-square test of homogeneity over bins at the quantiles of the pooled sample, merged so that each bin holds at
+     * least 10 pooled values
+     * @param a  sorted sample
+     * @param b  sorted sample
+     * @return   statistic, degrees of freedom and p-value
+     */
+    static double[] chiSquare(double[] a,double[] b){
+	double[] pooled = new double[a.length + b.length];
+	System.arraycopy(a,0,pooled,0,a.length);
+	System.arraycopy(b,0,pooled,a.length,b.length);
+	Arrays.sort(pooled);
+	int N = pooled.length, B = Math.max(1,Math.min(10,N/20));
+	ArrayList<Double> edges = new ArrayList<Double>();
+	for (int k=1;k<B;k++){
+	    double e = pooled[N*k/B - 1];
+	    if (edges.isEmpty() || e > edges.get(edges.size()-1)) edges.add(e);
+	}
+	int[] countA = count(a,edges), countB = count(b,edges);
+	ArrayList<int[]> bins = new ArrayList<int[]>();
+	int[] open = new int[2];
+	for (int k=0;k<countA.length;k++){
+	    open[0] += countA[k];
+	    open[1] += countB[k];
+	    if (open[0] + open[1] >= 10){bins.add(open); open = new int[2];}
+	}
+	if (bins.isEmpty()) bins.add(open);
+	else {bins.get(bins.size()-1)[0] += open[0]; bins.get(bins.size()-1)[1] += open[1];}
+	if (bins.size() < 2) return new double[]{0,0,1};
+	double x = 0;
+	for (int[] bin : bins){
+	    double total = bin[0] + bin[1];
+	    double ea = total * a.length / N, eb = total * b.length / N;
+	    x += (bin[0]-ea)*(bin[0]-ea)/ea + (bin[1]-eb)*(bin[1]-eb)/eb;
+	}
+	int df = bins.size() - 1;
+	return new double[]{x,df,gammaQ(df/2.0,x/2.0)};
+    }
+
+    static int[] count(double[] sorted,ArrayList<Double> edges){
+	int[] c = new int[edges.size()+1];
+	int k = 0;
+	for (double v : sorted){
+	    while (k < edges.size() && v > edges.get(k)) k++;
+	    c[k]++;
+	}
+	return c;
+    }
+
+    /**
+     * @return  regularised upper incomplete gamma function Q(a,x), by series or continued fraction
+     */
+    static double gammaQ(double a,double x){
+	if (x <= 0) return 1;
+	double lead = Math.exp(-x + a*Math.log(x) - logGamma(a));
+	if (x < a + 1){
+	    double term = 1/a, sum = term;
+	    for (int k=1;k<1000 && Math.abs(term) > 1e-15*Math.abs(sum);k++){term *= x/(a+k); sum += term;}
+	    return Math.max(0,1 - sum*lead);
+	}
+	double b = x + 1 - a, c = 1e300, d = 1/b, h = d;
+	for (int k=1;k<1000;k++){
+	    double an = -k * (k - a);
+	    b += 2;
+	    d = an*d + b; if (Math.abs(d) < 1e-300) d = 1e-300;
+	    c = b + an/c;  if (Math.abs(c) < 1e-300) c = 1e-300;
+	    d = 1/d;
+	    double delta = d*c;
+	    h *= delta;
+	    if (Math.abs(delta - 1) < 1e-15) break;
+	}
+	return lead * h;
+    }
+
+    static double logGamma(double x){
+	double[] g = {76.18009172947146,-86.50532032941677,24.01409824083091,-1.231739572450155,0.1208650973866179e-2,-0.5395239384953e-5};
+	double y = x, t = x + 5.5;
+	t -= (x + 0.5) * Math.log(t);
+	double s = 1.000000000190015;
+	for (double c : g) s += c / ++y;
+	return -t + Math.log(2.5066282746310005 * s / x);
+    }
+
+    /**
+     * Main method - arguments from command line: <replicates> <reference> <candidate> <GridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>} {<seed>}
+     * Exits with status 1 if the engines differ significantly
+     * @param args  command line e.g.: java Equivalence 400 RFd2S RFd2S:Philox 50 20 0.2 300 0.6 0.2 1
+     */
+    public static void main(String[] args) {
+	int replicates   = Integer.parseInt(args[0]);
+	String[] rest    = Arrays.copyOfRange(args,3,args.length);
+	SimConfig config = SimConfig.parse(args[1],rest);
+	if (rest.length % 3 == 1) config = config.withSeed(Long.parseLong(rest[rest.length-1]));
+	boolean pass = new Equivalence(config,replicates).test(args[1],args[2],System.out);
+	System.exit(pass ? 0 : 1);
+    }
+}
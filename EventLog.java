@@ -0,0 +1,96 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Compact binary log of the events of a simulation, replayed by EventReplay
+ *
+ * Header: magic, n, m, start time, then the initial lattice as n*n bytes (species, or -1 for empty) in row order.
+ * Records: time (double), type (BIRTH or DEATH), species, source site, target site (sites as i*n+j; a death has
+ * source == target). Births onto occupied sites are logged too, and have no effect on replay.
+ */
+public class EventLog {
+
+    static final int MAGIC   = 0x47434145;  // "GCAE"
+    static final byte BIRTH  = 0;
+    static final byte DEATH  = 1;
+    static final int RECORD  = 18;          // bytes per event
+    static final int BUFFER  = 1 << 16;
+
+    FileChannel channel;
+    ByteBuffer buffer;
+
+    /**
+     * Creates a log starting from the current state of a simulator
+     * @param file  the log file
+     * @param ca    the simulator, after its initial population has been added
+     * @throws IOException
+     */
+    public EventLog(String file,CA ca) throws IOException {
+	channel = FileChannel.open(Paths.get(file),StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+	buffer  = ByteBuffer.allocateDirect(BUFFER);
+	buffer.putInt(MAGIC).putInt(ca.n).putInt(ca.m).putDouble(ca.time);
+	for (int i=0;i<ca.n;i++)
+	    for (int j=0;j<ca.n;j++){
+		if (!buffer.hasRemaining()) flush();
+		buffer.put((byte)ca.A[i][j]);
+	    }
+    }
+
+    /**
+     * Logs a birth
+     * @param time     time of the event
+     * @param species  species giving birth
+     * @param source   site of the parent
+     * @param target   site of the offspring
+     */
+    void birth(double time,int species,int source,int target){
+	if (buffer.remaining() < RECORD) flush();
+	buffer.putDouble(time).put(BIRTH).put((byte)species).putInt(source).putInt(target);
+    }
+
+    /**
+     * Logs a death
+     * @param time     time of the event
+     * @param species  species of the individual that dies
+     * @param site     site of the individual
+     */
+    void death(double time,int species,int site){
+	if (buffer.remaining() < RECORD) flush();
+	buffer.putDouble(time).put(DEATH).put((byte)species).putInt(site).putInt(site);
+    }
+
+    void flush(){
+	buffer.flip();
+	try {while (buffer.hasRemaining()) channel.write(buffer);}
+	catch (IOException e) {throw new UncheckedIOException(e);}
+	buffer.clear();
+    }
+
+    void close() throws IOException {
+	flush();
+	channel.close();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Rebuilds the lattice of a logged simulation (see EventLog) at any time from its initial state and events
+ */
+public class EventReplay {
+
+    int n;
+    int m;
+    double time;          // time of the last event applied
+    int[][] A;
+    int[] population;
+    int totalPopulation;
+    FileChannel channel;
+    ByteBuffer buffer;
+
+    /**
+     * Opens a log, positioned at its initial state
+     * @param file  the log file
+     * @throws IOException
+     */
+    public EventReplay(String file) throws IOException {
+	channel = FileChannel.open(Paths.get(file),StandardOpenOption.READ);
+	buffer  = ByteBuffer.allocateDirect(EventLog.BUFFER);
+	buffer.limit(0);
+	if (!fill(20) || buffer.getInt() != EventLog.MAGIC) throw new IOException(file + " is not an event log");
+	n          = buffer.getInt();
+	m          = buffer.getInt();
+	time       = buffer.getDouble();
+	A          = new int[n][n];
+	population = new int[m];
+	for (int i=0;i<n;i++)
+	    for (int j=0;j<n;j++){
+		if (!fill(1)) throw new EOFException("truncated initial lattice");
+		A[i][j] = buffer.get();
+		if (A[i][j] != CA.empty){population[A[i][j]]++; totalPopulation++;}
+	    }
+    }
+
+    /**
+     * Makes at least k bytes available in the buffer
+     * @param k  number of bytes needed
+     * @return   false at end of file
+     * @throws IOException
+     */
+    boolean fill(int k) throws IOException {
+	if (buffer.remaining() >= k) return true;
+	buffer.compact();
+	while (buffer.position() < k)
+	    if (channel.read(buffer) < 0) break;
+	buffer.flip();
+	return buffer.remaining() >= k;
+    }
+
+    /**
+     * Applies events in order up to and including time t
+     * @param t  time to advance to
+     * @throws IOException
+     */
+    void advance(double t) throws IOException {
+	while (fill(EventLog.RECORD) && buffer.getDouble(buffer.position()) <= t){
+	    time        = buffer.getDouble();
+	    byte type   = buffer.get();
+	    int species = buffer.get();
+	    buffer.getInt();  // source
+	    int target  = buffer.getInt();
+	    int i = target/n;
+	    int j = target%n;
+	    if (type == EventLog.DEATH){
+		A[i][j] = CA.empty;
+		population[species]--;
+		totalPopulation--;
+	    }
+	    else if (A[i][j] == CA.empty){
+		A[i][j] = species;
+		population[species]++;
+		totalPopulation++;
+	    }
+	}
+    }
+
+    /**
+     * Main method - arguments from command line: <logFile> <time> {draw}
+     * Outputs time and species counts as in CA.show(), then the lattice (species number per site, . for empty)
+     * @param args  command line e.g.: java EventReplay Gill.trace 250.0
+     */
+    public static void main(String[] args) throws IOException {
+	EventReplay replay = new EventReplay(args[0]);
+	double t = Double.parseDouble(args[1]);
+	replay.advance(t);
+	replay.channel.close();
+	if (args.length > 2 && args[2].equals("draw")){
+	    StdDraw.clear(CA.background);
+	    StdDraw.setXscale(-2,replay.n);
+	    StdDraw.setYscale(-2,replay.n);
+	    for (int i=0;i<replay.n;i++)
+		for (int j=0;j<replay.n;j++)
+		    if (replay.A[i][j] != CA.empty){
+			StdDraw.setPenColor(CA.color[replay.A[i][j]]);
+			StdDraw.filledSquare(i,j,0.4);
+		    }
+	    StdDraw.show(0);
+	    return;
+	}
+	PrintStream out = new PrintStream(new BufferedOutputStream(System.out));
+	out.printf("%.5f",t);
+	for (int i=0;i<replay.m;i++) out.print(" " + replay.population[i]);
+	out.println(" "+ replay.totalPopulation);
+	for (int i=0;i<replay.n;i++){
+	    StringBuilder row = new StringBuilder();
+	    for (int j=0;j<replay.n;j++) row.append(replay.A[i][j] == CA.empty ? "." : Integer.toString(replay.A[i][j]));
+	    out.println(row);
+	}
+	out.close();
+	System.exit(0);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Thin client of GcaDaemon, taking the same arguments as the main methods of the simulators
+ */
+public class GcaClient {
+
+    /**
+     * Main method - arguments from command line: {socket=<path>} {seed=<s>} {out=<path>} <algorithmName> <gridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>} {ten|hundred}
+     * @param args  command line e.g.: java GcaClient seed=42 Gill 100 1000 0.5 1000 1.0 0.1
+     */
+    public static void main(String[] args) throws IOException {
+	String socket  = GcaDaemon.defaultSocket;
+	StringBuilder request = new StringBuilder();
+	for (String arg : args){
+	    if (arg.startsWith("socket=")) socket = arg.substring(7);
+	    else request.append(request.length() == 0 ? "" : " ").append(arg);
+	}
+	SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+	PrintStream send = new PrintStream(Channels.newOutputStream(channel),true,"UTF-8");
+	send.println(request);
+	BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),StandardCharsets.UTF_8),1 << 16);
+	PrintStream out   = new PrintStream(new BufferedOutputStream(System.out,1 << 16));
+	int status = 1;
+	String line;
+	while ((line = in.readLine()) != null){
+	    if (line.equals("# done")){status = 0; break;}
+	    if (line.startsWith("# error")){System.err.println(line.substring(2)); break;}
+	    out.println(line);
+	}
+	out.flush();
+	channel.close();
+	System.exit(status);
+    }
+}
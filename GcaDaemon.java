@@ -0,0 +1,164 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Long-lived simulation server on a local (Unix domain) socket, so that short runs do not pay JVM startup and JIT
+ * warm-up each time. See GcaClient.
+ *
+ * A request is one line: {seed=<s>} {out=<path>} <algorithmName> <gridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>} {ten|hundred}
+ * The output (as show()) is streamed back, or written to path if out= is given, followed by a line "# done" or
+ * "# error <message>". The request "shutdown" stops the server.
+ *
+ * Connections are handled on virtual threads where the JVM has them (Java 21 on), else on a cached thread pool;
+ * simulations run on a fixed pool of worker threads.
+ */
+public class GcaDaemon {
+
+    static String defaultSocket = new File(System.getProperty("java.io.tmpdir"),"gca.sock").getPath();
+
+    ServerSocketChannel server;
+    Path socket;
+    ExecutorService handlers;
+    ExecutorService workers;
+
+    /**
+     * Binds the server socket
+     * @param socket   path of the socket file (a stale one is replaced)
+     * @param threads  number of simulation worker threads
+     * @throws IOException
+     */
+    public GcaDaemon(String socket,int threads) throws IOException {
+	this.socket = Paths.get(socket);
+	Files.deleteIfExists(this.socket);
+	server   = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+	server.bind(UnixDomainSocketAddress.of(this.socket));
+	handlers = handlerExecutor();
+	workers  = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * @return  a virtual-thread-per-task executor if available, else a cached thread pool
+     */
+    static ExecutorService handlerExecutor(){
+	try {return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);}
+	catch (ReflectiveOperationException e) {return Executors.newCachedThreadPool();}
+    }
+
+    /**
+     * Accepts connections until a shutdown request, then waits for the requests in progress to finish
+     */
+    void serve(){
+	while (server.isOpen()){
+	    try {
+		final SocketChannel client = server.accept();
+		handlers.execute(new Runnable(){public void run(){handle(client);}});
+	    }
+	    catch (IOException e) {if (server.isOpen()) e.printStackTrace();}
+	}
+	handlers.shutdown();  // requests in progress run to the end and are replied to
+	workers.shutdown();
+	try {
+	    workers.awaitTermination(Long.MAX_VALUE,TimeUnit.MILLISECONDS);
+	    handlers.awaitTermination(Long.MAX_VALUE,TimeUnit.MILLISECONDS);
+	}
+	catch (InterruptedException e) {Thread.currentThread().interrupt();}
+    }
+
+    /**
+     * Reads one request, runs it on the worker pool and replies
+     * @param client  the connection
+     */
+    void handle(SocketChannel client){
+	try {
+	    BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client),StandardCharsets.UTF_8));
+	    final PrintStream reply = new PrintStream(new BufferedOutputStream(Channels.newOutputStream(client),1 << 16),false,"UTF-8");
+	    String line = in.readLine();
+	    try {
+		if (line == null) return;
+		if (line.trim().equals("shutdown")){
+		    reply.println("# done");
+		    reply.flush();
+		    Files.deleteIfExists(socket);
+		    server.close();
+		    return;
+		}
+		final String[] request = line.trim().split("\\s+");
+		workers.submit(new Callable<Void>(){public Void call() throws IOException {run(request,reply); return null;}}).get();
+		reply.println("# done");
+	    }
+	    catch (ExecutionException e) {reply.println("# error " + e.getCause());}
+	    catch (RuntimeException e) {reply.println("# error " + e);}
+	    reply.flush();
+	}
+	catch (Exception e) {e.printStackTrace();}
+	finally {
+	    try {client.close();}
+	    catch (IOException e) {}
+	}
+    }
+
+    /**
+     * Runs a request as the main methods would
+     * @param request  the request, split into words
+     * @param reply    stream back to the client
+     * @throws IOException
+     */
+    static void run(String[] request,PrintStream reply) throws IOException {
+	int k         = 0;
+	boolean seeded = false;
+	long seed     = 0;
+	String path   = null;
+	for (;k<request.length && request[k].contains("=");k++){
+	    if (request[k].startsWith("seed=")){seeded = true; seed = Long.parseLong(request[k].substring(5));}
+	    else if (request[k].startsWith("out=")) path = request[k].substring(4);
+	    else throw new IllegalArgumentException("unknown option " + request[k]);
+	}
+	String[] args = Arrays.copyOfRange(request,k+1,request.length);
+	String last   = args[args.length-1];
+	if (last.equals("draw") || last.equals("trace")) throw new IllegalArgumentException(last + " is not available in the daemon");
+	int reps = 1;
+	if (last.equals("ten")) reps = 10;
+	if (last.equals("hundred")) reps = 100;
+	SimConfig config = SimConfig.parse(request[k],args);
+	PrintStream out  = path == null ? reply : new PrintStream(new BufferedOutputStream(new FileOutputStream(path)));
+	for (int rep=0;rep<reps;rep++) (seeded ? config.withSeed(seed + rep) : config).run(out);
+	if (path != null) out.close();
+    }
+
+    /**
+     * Main method - arguments from command line: {<socketPath>} {<threads>}
+     * @param args  command line e.g.: java GcaDaemon /tmp/gca.sock 8
+     */
+    public static void main(String[] args) throws IOException {
+	String socket = args.length > 0 ? args[0] : defaultSocket;
+	int threads   = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+	new GcaDaemon(socket,threads).serve();
+	System.exit(0);
+    }
+}
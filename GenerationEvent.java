@@ -0,0 +1,46 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import jdk.jfr.*;
+
+/**
+ * JFR event committed at each output of a simulator with metrics enabled (see EngineMetrics)
+ */
+@Name("gca.Generation")
+@Label("Simulator Generation")
+@Category("Gillespie Cellular Automaton")
+@Description("Performance counters of a simulator since its previous output")
+public class GenerationEvent extends Event {
+    @Label("Algorithm")             String algorithm;
+    @Label("Simulated Time")        double time;
+    @Label("Generations")           long generations;
+    @Label("Events")                long events;
+    @Label("Null Births")           long nullBirths;
+    @Label("Site Updates")          long siteUpdates;
+    @Label("Shuffle") @Timespan     long shuffleNanos;
+    @Label("Deaths") @Timespan      long deathNanos;
+    @Label("Births") @Timespan      long birthNanos;
+    @Label("Copy") @Timespan        long copyNanos;
+    @Label("Sweep") @Timespan       long sweepNanos;
+    @Label("Allocated") @DataAmount long allocatedBytes;
+    @Label("GC Count")              long gcCount;
+    @Label("GC Time") @Timespan(Timespan.MILLISECONDS) long gcMillis;
+}
@@ -26,13 +26,16 @@ import java.awt.*;
 /**
  * Main class for Gillespie simulator, Gill
  */
-public class Gill extends CA {
+public final class Gill extends CA {
 
-    RandomSet[] S;             // one for each species
+    SpeciesIndex S;            // sites of each species, and empty sites
     double[] totalBirthRate;
     double[] totalDeathRate;
     double tau;                // output in increments of tau
     double deltaT;             // is the time past the previous timestep that Gill is currently at
+    EventLog log;              // null <-> events not logged
+    SiteTree tree;             // with a habitat, event propensity of every site
+    int treeUpdates;           // updates of tree since it was last rebuilt
 
     /**
      * Constructs a Gill simulator
@@ -42,13 +45,13 @@ public class Gill extends CA {
      * @param draw  boolean - show visualisation?
      */
     public Gill(int n,int m,double tau,boolean draw){
-	super(n,m,draw);
+	super(n,m,draw,false);
 	this.tau       = tau;
-	S              = new RandomSet[m];
+	S              = new SpeciesIndex(n*n,m,gen);
 	totalBirthRate = new double[m];
 	totalDeathRate = new double[m];
 	deltaT         = 0.0;      // at start, we're 0.0 past the previous timestep
-	for (int i=0;i<m;i++) S[i] = new RandomSet(n*n);
+	if (habitat != null) tree = new SiteTree(n*n);
     }
 
     /**
@@ -57,30 +60,47 @@ public class Gill extends CA {
      * @throws RandomSetException
      */
     void add(int species) throws RandomSetException {
-	int x = freeSpace.delete();
+	int x = S.select(S.free);
+	if (x == SpeciesIndex.EMPTY) throw new RandomSetException("lattice full");
 	int i = x/n;
 	int j = x%n;
+	if (stats != null) stats.change(A,i,j,empty,species);
 	A[i][j] = species;
-	S[species].add(x);
+	S.move(x,S.free,species);
+	if (tree != null) updateTree(x,propensity(species,x));
 	population[species]++;
 	totalPopulation++;
 	if (draw) plot(i,j,color[species]);
     }
 
+    /**
+     * Recomputes the population sizes, species index, site tree and statistics from A
+     */
+    void rebuild(){
+	super.rebuild();
+	S.rebuild(A);
+	if (tree != null) rebuildTree();
+    }
+
     /**
      * Executes a death of specified species, decrementing population of that species and total population
      * @param species  identifier of species
-     * @throws RandomSetException
      */
-    void death(int species) throws RandomSetException {
-	int x = S[species].delete();
+    void death(int species){death(species,S.select(species));}
+
+    /**
+     * Executes the death of the individual at site x
+     * @param species  identifier of its species
+     * @param x        the site
+     */
+    void death(int species,int x){
+	S.move(x,species,S.free);
 	int i = x/n;
 	int j = x%n;
-	if (trace){
-	    System.out.println("death at ("+ i +","+ j +") ");
-	    if (draw){plot(i,j,Color.CYAN); pause(500); unPlot(i,j); pause(500);}
-	}
+	if (log != null) log.death(time + deltaT,species,x);
+	if (stats != null) stats.change(A,i,j,species,empty);
 	A[i][j] = empty;
+	if (tree != null) updateTree(x,-propensity(species,x));
 	population[species]--;
 	totalPopulation--;
     }
@@ -88,32 +108,119 @@ public class Gill extends CA {
     /**
      * Executes a birth of specified species, incrementing population of that species and total population
      * @param species   identifier of species
-     * @throws RandomSetException
      */
-    void birth(int species) throws RandomSetException {
-	int x = S[species].select();
+    void birth(int species){birth(species,S.select(species));}
+
+    /**
+     * Executes a birth by the individual at site x onto a random neighbouring site
+     * @param species  identifier of its species
+     * @param x        the site
+     */
+    void birth(int species,int x){
 	int i = x/n;
 	int j = x%n;
 	int point = chooseRandomNeighbour(i,j);
-	if (trace){
-	    System.out.print("birth from ("+ i +","+ j +") ");
-	    System.out.println("onto ("+ point/n +","+ point%n +")");
-	    if (draw){plot(point/n,point%n,Color.RED); pause(500); plot(i,j,Color.YELLOW); pause(500);}
-	}
+	if (log != null) log.birth(time + deltaT,species,x,point);
+	births++;
 	if (A[point/n][point%n] == empty){
+	    if (stats != null) stats.change(A,point/n,point%n,empty,species);
 	    A[point/n][point%n] = species;
-	    S[species].add(point);
+	    S.move(point,S.free,species);
+	    if (tree != null) updateTree(point,propensity(species,point));
 	    population[species]++;
 	    totalPopulation++;
 	}
+	else nullBirths++;
     }
 
-    static double genTau(double lambda){return -Math.log(1 - Math.random()) / lambda;}
+    double genTau(double lambda){return gen.nextExponential() / lambda;}
+
+    /**
+     * @param species  identifier of species
+     * @param x        a site
+     * @return         total event rate of an individual of species at site x, adjusted by the habitat
+     */
+    double propensity(int species,int x){
+	return birthRate[species] * habitat.birth(x) + deathRate[species] * habitat.death(x);
+    }
+
+    /**
+     * Adds to the propensity of a site, rebuilding the tree from the lattice every n*n updates to bound rounding error
+     * @param x      the site
+     * @param delta  change of its propensity
+     */
+    void updateTree(int x,double delta){
+	if (++treeUpdates < n*n) tree.add(x,delta);
+	else rebuildTree();
+    }
+
+    /**
+     * Recomputes the propensity of every site from the lattice
+     */
+    void rebuildTree(){
+	for (int y=0;y<n*n;y++){
+	    int species = A[y/n][y%n];
+	    tree.set(y,species == empty ? 0.0 : propensity(species,y));
+	}
+	tree.build();
+	treeUpdates = 0;
+    }
+
+    /**
+     * Sets rates, recomputing site propensities if there is a habitat
+     */
+    public void setBirthRate(int species,double rate){
+	birthRate[species] = rate;
+	if (tree != null) rebuildTree();
+    }
+    public void setDeathRate(int species,double rate){
+	deathRate[species] = rate;
+	if (tree != null) rebuildTree();
+    }
+
+    /**
+     * Carries out a single event chosen by site propensity (with a habitat): O(log n^2) per event
+     */
+    void siteEvent(){
+	double lambda = tree.total();
+	deltaT = deltaT + genTau(lambda);
+	int x = tree.find(gen.nextDouble() * lambda);
+	int species = A[x/n][x%n];
+	if (species == empty) return;   // only by rounding at the edge of a zero propensity site
+	double b = birthRate[species] * habitat.birth(x);
+	double d = deathRate[species] * habitat.death(x);
+	if (gen.nextDouble() * (b + d) < b) birth(species,x);
+	else death(species,x);
+    }
 
     /**
      * Carries out a single event (birth or death)
      */
     void doGeneration(){
+	if (habitat != null) siteEvent();
+	else speciesEvent();
+	events++;
+    // if newtime larger than output timestep Output intermediate states of the system until next timestep and until maxTime
+	while ( (deltaT >= tau && maxTime >= deltaT) ) {
+	    time = time + tau;      // move on the actual time gca.time (see CA class)
+	    deltaT = deltaT - tau;  // now less far past previous timestep
+	    if (draw){plot(); pause(100);}    // update simulation and output
+	    show();
+	}
+	// if we're not getting any more events, just show() from now until maxTime
+	if (time + deltaT > maxTime) {		
+		while ( (time < maxTime) ) {
+		    time = time + tau;
+		    if (draw){plot(); pause(100);}    // update simulation and output
+		    show();
+		}	
+	}
+    }
+
+    /**
+     * Carries out a single event chosen by species rate (uniform habitat)
+     */
+    void speciesEvent(){
 	double lambda = 0.0;
     // Calculate total rates per species and over all species (lambda)
 	for (int species=0;species<m;species++){
@@ -127,7 +234,7 @@ public class Gill extends CA {
 	    pDeath[species] = totalDeathRate[species]/lambda;
 	}
 	deltaT     = deltaT + genTau(lambda);  // move time on (Gillespie algorithm) (now further past prev timestep output)
-	double p   = Math.random();            // select an event proportionally to rate (Gillespie algorithm)
+	double p   = gen.nextDouble();         // select an event proportionally to rate (Gillespie algorithm)
 	double lwb = 0.0;
 	for (int species=0;species<m;species++){
 	    if (p >= lwb && p < pBirth[species]+lwb){birth(species); break;}
@@ -135,34 +242,25 @@ public class Gill extends CA {
 	    if (p >= lwb && p < pDeath[species]+lwb){death(species); break;}
 	    lwb = lwb + pDeath[species];
 	}
-    // if newtime larger than output timestep Output intermediate states of the system until next timestep and until maxTime
-	while ( (deltaT >= tau && maxTime >= deltaT) ) {
-	    time = time + tau;      // move on the actual time gca.time (see CA class)
-	    deltaT = deltaT - tau;  // now less far past previous timestep
-	    if (draw){plot(); pause(100);}    // update simulation and output
-	    show();
-	}
-	// if we're not getting any more events, just show() from now until maxTime
-	if (time + deltaT > maxTime) {		
-		while ( (time < maxTime) ) {
-		    time = time + tau;
-		    if (draw){plot(); pause(100);}    // update simulation and output
-		    show();
-		}	
-	}
     }
 
+    /**
+     * Logs every subsequent event, replacing trace output (see EventLog and EventReplay)
+     * @param log  the event log, created after the initial population has been added
+     */
+    public void setEventLog(EventLog log){this.log = log;}
+
     /**
      * Main method - arguments from command line: <GridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>}
      * @param args  command line e.g.: java Gill 100 1000 0.5 1000 1.0 0.1 1000 0.5 0.05
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 	int n         = Integer.parseInt(args[0]);           // size of grid
 	int maxTime   = Integer.parseInt(args[1]);           // number of iterations
 	double tau    = Double.parseDouble(args[2]);         // the click of the clock
 	int m         = (args.length/3) - 1;                 // n species
 	boolean draw  = args[args.length-1].equals("draw");  // do we draw?
-	boolean trace = args[args.length-1].equals("trace"); // do we trace and draw?
+	boolean trace = args[args.length-1].equals("trace"); // do we log events to Gill.trace?
 
 	int reps = 1;
 	if (args[args.length-1].equals("ten")) reps = 10;
@@ -170,18 +268,22 @@ public class Gill extends CA {
 
 	while (reps > 0){
 	    Gill gca = new Gill(n,m,tau,draw);
+	    gca.setFromProperties();
 	    for (int i=1;i<=m;i++){
 		int species = i-1;
-		int popn    = Integer.parseInt(args[3*i]);
+		int popn    = LatticeInit.spec == null ? Integer.parseInt(args[3*i]) : 0;
 		gca.setBirthRate(species,Double.parseDouble(args[3*i+1]));
 		gca.setDeathRate(species,Double.parseDouble(args[3*i+2]));
 		for (int j=0;j<popn;j++) gca.add(species);
 	    }
+	    if (LatticeInit.spec != null) gca.setLattice(LatticeInit.fromProperties(n,m,gca.gen));
 	    
 	    gca.setMaxTime(maxTime);
-	    gca.setTrace(trace);
+	    if (trace) gca.setEventLog(new EventLog("Gill.trace",gca));
 	    gca.show();
 	    while (gca.time < maxTime) gca.doGeneration();      // keep doing a generation until maxTime
+	    if (trace) gca.log.close();
+	    gca.closeSnapshots();
 	    reps--;
 	}
 	System.exit(0);
@@ -0,0 +1,139 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Habitat quality map: per-site multipliers of birth and death rates, memory-mapped from a raster file
+ *
+ * Raster format: magic, n, number of layers (1: one multiplier for both rates, 2: birth then death multipliers),
+ * then each layer as n*n floats in row order (site i*n+j), all big-endian. The file must be under 2GB.
+ */
+public class Habitat {
+
+    static final int MAGIC  = 0x47434148;  // "GCAH"
+    static final int HEADER = 12;
+
+    int n;
+    FloatBuffer birth;
+    FloatBuffer death;
+
+    /**
+     * Maps a raster file
+     * @param file  the raster file
+     * @throws IOException
+     */
+    public Habitat(String file) throws IOException {
+	FileChannel channel = FileChannel.open(Paths.get(file),StandardOpenOption.READ);
+	MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+	channel.close();  // the mapping stays valid
+	if (map.getInt(0) != MAGIC) throw new IOException(file + " is not a habitat raster");
+	n          = map.getInt(4);
+	int layers = map.getInt(8);
+	long cells = (long)n * n;
+	if (map.capacity() < HEADER + 4*cells*layers) throw new IOException(file + " is truncated");
+	birth = map.slice(HEADER,(int)(4*cells)).asFloatBuffer();
+	death = layers == 2 ? map.slice(HEADER + (int)(4*cells),(int)(4*cells)).asFloatBuffer() : birth;
+    }
+
+    /**
+     * @param n  size of the lattice
+     * @return   the habitat named by the system property gca.habitat, or null if it is not set
+     */
+    static Habitat fromProperties(int n){
+	String file = System.getProperty("gca.habitat");
+	if (file == null) return null;
+	try {
+	    Habitat habitat = new Habitat(file);
+	    if (habitat.n != n) throw new IllegalArgumentException("habitat is " + habitat.n + "x" + habitat.n + ", lattice " + n + "x" + n);
+	    return habitat;
+	}
+	catch (IOException e) {throw new UncheckedIOException(e);}
+    }
+
+    float birth(int site){return birth.get(site);}
+    float death(int site){return death.get(site);}
+
+    /**
+     * Tabulates per-site probabilities 1-(1-p)^h, i.e. the probability of an event in a timestep at rate scaled by
+     * the multiplier h of each site, when p is its probability at rate unscaled
+     * @param p       probability at multiplier 1
+     * @param births  true for the birth layer, false for the death layer
+     * @return        per-site thresholds for Rng.bernoulli31
+     */
+    int[] thresholds(double p,boolean births){
+	FloatBuffer layer = births ? birth : death;
+	int[] t           = new int[n*n];
+	double log        = Math.log1p(-Math.min(p,1.0));
+	for (int x=0;x<t.length;x++){
+	    double h = layer.get(x);
+	    t[x] = Rng.threshold31(h <= 0 ? 0.0 : (p >= 1.0 ? 1.0 : -Math.expm1(h*log)));
+	}
+	return t;
+    }
+
+    /**
+     * Writes a raster file
+     * @param file   the raster file
+     * @param n      size of the lattice
+     * @param birth  n*n birth rate multipliers (or multipliers of both rates if death is null)
+     * @param death  n*n death rate multipliers, or null
+     * @throws IOException
+     */
+    static void write(String file,int n,float[] birth,float[] death) throws IOException {
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),1 << 16));
+	out.writeInt(MAGIC);
+	out.writeInt(n);
+	out.writeInt(death == null ? 1 : 2);
+	for (float h : birth) out.writeFloat(h);
+	if (death != null) for (float h : death) out.writeFloat(h);
+	out.close();
+    }
+
+    /**
+     * Reads n rows of n multipliers from a text file
+     */
+    static float[] readText(String file) throws IOException {
+	ArrayList<Float> values = new ArrayList<Float>();
+	Scanner in = new Scanner(new BufferedReader(new FileReader(file)));
+	while (in.hasNext()) values.add(Float.parseFloat(in.next()));
+	in.close();
+	float[] h = new float[values.size()];
+	for (int x=0;x<h.length;x++) h[x] = values.get(x);
+	return h;
+    }
+
+    /**
+     * Main method - converts text maps (n rows of n multipliers) into a raster: <rasterFile> <birthText> {<deathText>}
+     * @param args  command line e.g.: java Habitat habitat.gcah quality.txt
+     */
+    public static void main(String[] args) throws IOException {
+	float[] birth = readText(args[1]);
+	float[] death = args.length > 2 ? readText(args[2]) : null;
+	int n = (int)Math.round(Math.sqrt(birth.length));
+	if (n*n != birth.length || (death != null && death.length != birth.length)) throw new IllegalArgumentException("maps must be n x n");
+	write(args[0],n,birth,death);
+    }
+}
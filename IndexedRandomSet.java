@@ -0,0 +1,138 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.Arrays;
+
+/**
+ * A RandomSet over the universe 0..n-1 with a position index, so that specific elements can be removed or tested in
+ * O(1) as well as random ones. Hot path methods return EMPTY (or false) rather than throwing.
+ */
+public class IndexedRandomSet {
+
+    static final int EMPTY = -1;
+
+    private int[] v;      // elements, v[0..size-1]
+    private int[] pos;    // pos[e] = index of e in v, or -1 if e is not in the set
+    private int size;
+    private Rng random;
+
+    public IndexedRandomSet(int n){this(n,new Rng());}
+
+    public IndexedRandomSet(int n,Rng random){
+	size        = 0;
+	v           = new int[n];
+	pos         = new int[n];
+	this.random = random;
+	Arrays.fill(pos,-1);
+    }
+
+    public boolean add(int e){
+	if (pos[e] >= 0) return false;
+	v[size] = e;
+	pos[e]  = size;
+	size++;
+	return true;
+    }
+    //
+    // add e, returning false if it was already present
+    //
+
+    public boolean remove(int e){
+	int i = pos[e];
+	if (i < 0) return false;
+	size--;
+	int last = v[size];
+	v[i]      = last;
+	pos[last] = i;
+	pos[e]    = -1;
+	return true;
+    }
+    //
+    // remove e by moving the last element into its place, returning false if e was not present
+    //
+
+    public boolean contains(int e){return pos[e] >= 0;}
+
+    public int delete(){
+	if (size == 0) return EMPTY;
+	int e = v[random.nextInt(size)];
+	remove(e);
+	return e;
+    }
+    //
+    // select randomly an element e, delete e from the set, then return e (EMPTY if there is none)
+    //
+
+    public int select(){
+	if (size == 0) return EMPTY;
+	return v[random.nextInt(size)];
+    }
+    //
+    // select randomly an element e, then return e (EMPTY if there is none)
+    //
+
+    public void addAll(int[] elements,int count){
+	for (int k=0;k<count;k++) add(elements[k]);
+    }
+    //
+    // add the first count elements of an array
+    //
+
+    public void addRange(int from,int to){
+	for (int e=from;e<to;e++) add(e);
+    }
+    //
+    // add the elements from..to-1
+    //
+
+    public void clear(){
+	for (int i=0;i<size;i++) pos[v[i]] = -1;
+	size = 0;
+    }
+    //
+    // remove all elements, in time proportional to the size of the set
+    //
+
+    public int size(){return size;}
+
+    public String toString(){
+	StringBuilder s = new StringBuilder("{");
+	for (int i=0;i<size;i++) s.append(i == 0 ? "" : ",").append(v[i]);
+	return s.append("}").toString();
+    }
+
+
+    public static void main(String[] args){
+	int n = Integer.parseInt(args[0]);
+	IndexedRandomSet S = new IndexedRandomSet(n);
+
+	S.addRange(0,n);
+	System.out.println("  " + S);
+	for (int i=0;i<n;i+=2){
+	    S.remove(i);
+	    System.out.println(i +" "+ S);
+	}
+	while (S.size() > 0){
+	    System.out.print(S.delete() + " ");
+	    System.out.println(S);
+	}
+    }
+}
@@ -0,0 +1,213 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+
+/**
+ * Initial lattices built in bulk, for CA.setLattice, instead of adding individuals one at a time with add():
+ *
+ *   density:<d1>,<d2>,..       each site holds species k with probability dk (independently)
+ *   patches:<count>:<radius>:<density>
+ *                              circular patches at random centres, patch p of species p mod m, each site of a patch
+ *                              occupied with probability density
+ *   sites:<file>               text lines "<species> <i> <j>"
+ *   image:<file>               an n x n image, each pixel the species whose colour (CA.color) is nearest; the
+ *                              background colour or white for empty
+ *   binary:<file>              n*n bytes, species+1 of site i*n+j, 0 for empty (as a snapshot frame)
+ *   snapshot:<file>:<frame>    a frame of a snapshot file
+ *
+ * The mains use the lattice named by the system property gca.init in place of their initial population sizes.
+ */
+public class LatticeInit {
+
+    static String spec = System.getProperty("gca.init");
+
+    /**
+     * @param n    size of lattice
+     * @param m    number of species
+     * @param gen  source of random draws
+     * @return     the lattice given by gca.init, or null if it is not set
+     * @throws IOException
+     */
+    static int[][] fromProperties(int n,int m,Rng gen) throws IOException {
+	return spec == null ? null : parse(spec,n,m,gen);
+    }
+
+    /**
+     * @param spec  a mode and its arguments, as above
+     * @param n     size of lattice
+     * @param m     number of species
+     * @param gen   source of random draws
+     * @return      the lattice
+     * @throws IOException
+     */
+    static int[][] parse(String spec,int n,int m,Rng gen) throws IOException {
+	String[] s = spec.split(":");
+	if (s[0].equals("density")){
+	    String[] d = s[1].split(",");
+	    double[] density = new double[d.length];
+	    for (int k=0;k<d.length;k++) density[k] = Double.parseDouble(d[k]);
+	    return density(n,density,gen);
+	}
+	if (s[0].equals("patches"))  return patches(n,m,Integer.parseInt(s[1]),Double.parseDouble(s[2]),Double.parseDouble(s[3]),gen);
+	if (s[0].equals("sites"))    return sites(n,new File(s[1]));
+	if (s[0].equals("image"))    return image(n,new File(s[1]));
+	if (s[0].equals("binary"))   return binary(n,new File(s[1]));
+	if (s[0].equals("snapshot")){
+	    SnapshotReader reader = new SnapshotReader(new File(s[1]));
+	    if (reader.size() != n) throw new IOException("snapshot is " + reader.size() + " x " + reader.size());
+	    int[][] lattice = reader.lattice(Integer.parseInt(s[2]));
+	    reader.close();
+	    return lattice;
+	}
+	throw new IllegalArgumentException("unknown initialisation " + spec);
+    }
+
+    /**
+     * @param spec  a mode and its arguments, as above
+     * @return      the spec with any file replaced by a hash of its contents (see ResultCache.digest)
+     */
+    static String canonical(String spec){
+	String[] s = spec.split(":");
+	if (s[0].equals("sites") || s[0].equals("image") || s[0].equals("binary") || s[0].equals("snapshot")){
+	    s[1] = ResultCache.digest(new File(s[1]));
+	    return String.join(":",s);
+	}
+	return spec;
+    }
+
+    static int[][] empty(int n){
+	int[][] lattice = new int[n][n];
+	for (int[] row : lattice) Arrays.fill(row,CA.empty);
+	return lattice;
+    }
+
+    /**
+     * @param n        size of lattice
+     * @param density  probability of each species at a site (summing to at most 1)
+     * @param gen      source of random draws
+     * @return         the lattice
+     */
+    static int[][] density(int n,double[] density,Rng gen){
+	long[] upper = new long[density.length];  // cumulative thresholds, compared against 53 random bits
+	double sum = 0;
+	for (int k=0;k<density.length;k++){sum += density[k]; upper[k] = Rng.threshold(sum);}
+	int[][] lattice = new int[n][n];
+	for (int[] row : lattice)
+	    for (int j=0;j<n;j++){
+		long u = gen.nextBits();
+		int species = CA.empty;
+		for (int k=density.length-1;k>=0;k--) if (u < upper[k]) species = k;
+		row[j] = species;
+	    }
+	return lattice;
+    }
+
+    /**
+     * @param n        size of lattice
+     * @param m        number of species
+     * @param count    number of patches
+     * @param radius   radius of a patch
+     * @param density  probability that a site of a patch is occupied
+     * @param gen      source of random draws
+     * @return         the lattice (later patches overwrite earlier ones where they overlap)
+     */
+    static int[][] patches(int n,int m,int count,double radius,double density,Rng gen){
+	int[][] lattice = empty(n);
+	int r = (int)Math.ceil(radius);
+	long p = Rng.threshold(density);
+	for (int patch=0;patch<count;patch++){
+	    int ci = gen.nextInt(n), cj = gen.nextInt(n);
+	    for (int di=-r;di<=r;di++)
+		for (int dj=-r;dj<=r;dj++)
+		    if (di*di + dj*dj <= radius*radius && gen.bernoulli(p))
+			lattice[(ci+di+n) % n][(cj+dj+n) % n] = patch % m;
+	}
+	return lattice;
+    }
+
+    /**
+     * @param n     size of lattice
+     * @param file  text lines "<species> <i> <j>", # for comments
+     * @return      the lattice
+     * @throws IOException
+     */
+    static int[][] sites(int n,File file) throws IOException {
+	int[][] lattice = empty(n);
+	for (String line : Files.readAllLines(file.toPath())){
+	    line = line.replaceAll("#.*","").trim();
+	    if (line.isEmpty()) continue;
+	    String[] f = line.split("\\s+");
+	    lattice[Integer.parseInt(f[1])][Integer.parseInt(f[2])] = Integer.parseInt(f[0]);
+	}
+	return lattice;
+    }
+
+    /**
+     * @param n     size of lattice
+     * @param file  an n x n image; pixel (x,y) is site (x, n-1-y), as drawn by CA.plot()
+     * @return      the lattice
+     * @throws IOException
+     */
+    static int[][] image(int n,File file) throws IOException {
+	BufferedImage image = ImageIO.read(file);
+	if (image == null) throw new IOException(file + " is not a readable image");
+	if (image.getWidth() != n || image.getHeight() != n) throw new IOException(file + " is not " + n + " x " + n);
+	int[][] lattice = new int[n][n];
+	for (int x=0;x<n;x++)
+	    for (int y=0;y<n;y++){
+		Color c = new Color(image.getRGB(x,y));
+		int species = CA.empty;
+		int best = distance(c,CA.background);
+		best = Math.min(best,distance(c,Color.WHITE));
+		for (int k=0;k<CA.color.length;k++)
+		    if (distance(c,CA.color[k]) < best){best = distance(c,CA.color[k]); species = k;}
+		lattice[x][n-1-y] = species;
+	    }
+	return lattice;
+    }
+
+    static int distance(Color a,Color b){
+	int r = a.getRed() - b.getRed(), g = a.getGreen() - b.getGreen(), bl = a.getBlue() - b.getBlue();
+	return r*r + g*g + bl*bl;
+    }
+
+    /**
+     * @param n     size of lattice
+     * @param file  n*n bytes, species+1 of site i*n+j, 0 for empty
+     * @return      the lattice
+     * @throws IOException
+     */
+    static int[][] binary(int n,File file) throws IOException {
+	byte[] b = Files.readAllBytes(file.toPath());
+	if (b.length != n*n) throw new IOException(file + " has " + b.length + " bytes, not " + n*n);
+	int[][] lattice = new int[n][n];
+	for (int i=0;i<n;i++)
+	    for (int j=0;j<n;j++)
+		lattice[i][j] = b[i*n+j] - 1;
+	return lattice;
+    }
+}
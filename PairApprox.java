@@ -0,0 +1,193 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * Deterministic surrogate of the simulators: the mean-field or the pair approximation of the birth-death process on
+ * the lattice (each individual of species a dies at rate dRate[a] and gives birth at rate bRate[a] onto a random one
+ * of its z = 8 Moore neighbours, if that site is empty), integrated by fourth order Runge-Kutta.
+ *
+ * The pair approximation follows the densities p[s][t] of neighbouring pairs of sites in states s and t (0 for empty,
+ * a+1 for species a), closing the triplets by assuming that the other neighbours of a site depend on its state only:
+ * an empty site whose neighbour is t becomes a at rate bRate[a] (1/z [t == a] + (z-1)/z q(a|empty)). The mean-field
+ * approximation ignores space: an empty site becomes a at rate bRate[a] p[a]. Either takes milliseconds, and outputs
+ * the expected counts (density times n*n) in the format of show().
+ */
+public class PairApprox {
+
+    static final int z = 8;  // Moore neighbourhood
+
+    int n;                // n X n grid
+    int m;                // m species
+    int k;                // m+1 states of a site, 0 for empty
+    double[] bRate;       // birth rate
+    double[] dRate;       // death rate
+    boolean pairs;        // true for the pair approximation, false for mean-field
+    double[] p;           // pair densities p[s*k+t], or site densities p[s] in mean-field
+    double time;
+    double h;             // Runge-Kutta step
+    PrintStream out;      // destination of show() output, null for none
+
+    /**
+     * Constructs the approximation of a run, from sites placed independently at random as the simulators do
+     * @param config  the run
+     * @param pairs   true for the pair approximation, false for mean-field
+     */
+    public PairApprox(SimConfig config,boolean pairs){
+	n          = config.n;
+	m          = config.species();
+	k          = m + 1;
+	bRate      = config.bRate.clone();
+	dRate      = config.dRate.clone();
+	this.pairs = pairs;
+	out        = System.out;
+	double[] site = new double[k];
+	site[0] = 1.0;
+	for (int a=0;a<m;a++){
+	    site[a+1] = (double)config.initPopn[a] / (n*n);
+	    site[0]  -= site[a+1];
+	}
+	if (pairs){
+	    p = new double[k*k];
+	    for (int s=0;s<k;s++)
+		for (int t=0;t<k;t++) p[s*k+t] = site[s] * site[t];
+	}
+	else p = site;
+	double maxRate = 1e-9;
+	for (int a=0;a<m;a++) maxRate = Math.max(maxRate,bRate[a] + dRate[a]);
+	h = Math.min(config.tau,0.05 / maxRate);
+	h = config.tau / Math.ceil(config.tau / h);  // whole number of steps per output
+    }
+
+    /**
+     * @param x  pair densities, or site densities in mean-field
+     * @return   density of sites in state s
+     */
+    double density(double[] x,int s){
+	if (!pairs) return x[s];
+	double sum = 0.0;
+	for (int t=0;t<k;t++) sum += x[s*k+t];
+	return sum;
+    }
+
+    /**
+     * @param x   state
+     * @param dx  its time derivative
+     */
+    void derivative(double[] x,double[] dx){
+	if (!pairs){
+	    dx[0] = 0.0;
+	    for (int a=1;a<k;a++){
+		dx[a]  = (bRate[a-1] * x[0] - dRate[a-1]) * x[a];
+		dx[0] -= dx[a];
+	    }
+	    return;
+	}
+	double empty = density(x,0);
+	double[] colonise = new double[k];  // rate at which an empty site becomes a through its other neighbours
+	for (int a=1;a<k;a++) colonise[a] = empty > 0 ? bRate[a-1] * (z-1) / z * x[a] / empty : 0.0;  // x[0*k+a] = p[0][a]
+	Arrays.fill(dx,0.0);
+	for (int s=0;s<k;s++)
+	    for (int t=0;t<k;t++){
+		// changes of the first site of the pair (s,t); the second site's are added by symmetry
+		double flow;
+		if (s == 0){
+		    for (int a=1;a<k;a++){
+			flow = x[0*k+t] * (colonise[a] + (t == a ? bRate[a-1] / z : 0.0));
+			dx[0*k+t] -= flow; dx[t*k+0] -= flow;
+			dx[a*k+t] += flow; dx[t*k+a] += flow;
+		    }
+		}
+		else {
+		    flow = x[s*k+t] * dRate[s-1];
+		    dx[s*k+t] -= flow; dx[t*k+s] -= flow;
+		    dx[0*k+t] += flow; dx[t*k+0] += flow;
+		}
+	    }
+    }
+
+    /**
+     * Advances by one Runge-Kutta step
+     */
+    void step(){
+	int d = p.length;
+	double[] k1 = new double[d], k2 = new double[d], k3 = new double[d], k4 = new double[d], x = new double[d];
+	derivative(p,k1);
+	for (int i=0;i<d;i++) x[i] = p[i] + h/2 * k1[i];
+	derivative(x,k2);
+	for (int i=0;i<d;i++) x[i] = p[i] + h/2 * k2[i];
+	derivative(x,k3);
+	for (int i=0;i<d;i++) x[i] = p[i] + h * k3[i];
+	derivative(x,k4);
+	for (int i=0;i<d;i++) p[i] += h/6 * (k1[i] + 2*k2[i] + 2*k3[i] + k4[i]);
+	time += h;
+    }
+
+    /**
+     * Advances to time t, writing the expected counts every tau
+     * @param t    time to run to
+     * @param tau  output interval
+     */
+    public void runUntil(double t,double tau){
+	int steps = (int)Math.round(tau / h);
+	while (time < t - h/2){
+	    for (int s=0;s<steps;s++) step();
+	    show();
+	}
+    }
+
+    /**
+     * Outputs time and expected species counts, as CA.show()
+     */
+    void show(){
+	if (out == null) return;
+	out.printf("%.5f",time);
+	long total = 0;
+	for (int a=1;a<k;a++){
+	    long count = Math.round(density(p,a) * n*n);
+	    out.print(" " + count);
+	    total += count;
+	}
+	out.println(" " + total);
+    }
+
+    /**
+     * @param species  identifier of species
+     * @return         its current density
+     */
+    public double getDensity(int species){return density(p,species+1);}
+    public void   setOutput(PrintStream out){this.out = out;}
+
+    /**
+     * Main method - arguments from command line: <GridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>} {meanfield}
+     * @param args  command line e.g.: java PairApprox 100 1000 0.5 1000 1.0 0.1 1000 0.5 0.05
+     */
+    public static void main(String[] args) {
+	boolean pairs = !args[args.length-1].equals("meanfield");
+	SimConfig config = SimConfig.parse("PairApprox",args);
+	PairApprox approx = new PairApprox(config,pairs);
+	approx.show();
+	approx.runUntil(config.maxTime,config.tau);
+	System.exit(0);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.io.*;
+
+/**
+ * Paired comparison of two configurations (two parameter sets, or two algorithms) with common random numbers: in each
+ * replicate both are run with the same seed and a random number stream per kind of draw (see Rng), so that they place
+ * the same initial population and consume matching randomness, and the difference B - A is taken within the pair.
+ *
+ * For each output time and each species and the total, writes "<time> <quantity> <meanA> <meanB> <meanDifference>
+ * <pairedSE> <independentSE>", where the independent standard error is what the same number of independent runs
+ * would give. Replicates run in parallel.
+ */
+public class Paired {
+
+    SimConfig a,b;
+    int replicates;
+
+    /**
+     * @param a           first configuration
+     * @param b           second configuration (same timestep, maxTime and number of species)
+     * @param replicates  number of pairs
+     * @param seed        seed of the first pair (pair r uses seed+r)
+     */
+    public Paired(SimConfig a,SimConfig b,int replicates,long seed){
+	if (a.tau != b.tau || a.maxTime != b.maxTime || a.species() != b.species())
+	    throw new IllegalArgumentException("configurations differ in timestep, maxTime or species");
+	this.a          = a.withSeed(seed);
+	this.b          = b.withSeed(seed);
+	this.a.crn      = true;
+	this.b.crn      = true;
+	this.replicates = replicates;
+    }
+
+    /**
+     * @return  population sizes and total at each output of a run, as written by show()
+     */
+    static ArrayList<int[]> series(SimConfig config){
+	CA ca = config.build();
+	ArrayList<int[]> series = new ArrayList<int[]>();
+	int m = config.species();
+	ca.addObserver((time,population,totalPopulation) -> {
+		int[] row = Arrays.copyOf(population,m+1);
+		row[m] = totalPopulation;
+		series.add(row);
+	    });
+	ca.show();
+	ca.runUntil(config.maxTime);
+	return series;
+    }
+
+    /**
+     * Runs the pairs and writes the report
+     * @param out  destination of the report
+     */
+    void run(PrintStream out){
+	List<List<ArrayList<int[]>>> runs = IntStream.range(0,replicates).parallel()
+	    .mapToObj(r -> List.of(series(a.withSeed(a.seed + r)),series(b.withSeed(b.seed + r))))
+	    .collect(Collectors.toList());  // per pair, the series of A and of B
+	int outputs = Integer.MAX_VALUE;
+	for (List<ArrayList<int[]>> pair : runs) for (ArrayList<int[]> s : pair) outputs = Math.min(outputs,s.size());
+	int m = a.species();
+	out.println("# A " + a + " B " + b + ", " + replicates + " pairs");
+	for (int k=0;k<outputs;k++)
+	    for (int q=0;q<=m;q++){
+		double[] x = new double[replicates], y = new double[replicates], d = new double[replicates];
+		for (int r=0;r<replicates;r++){
+		    x[r] = runs.get(r).get(0).get(k)[q];
+		    y[r] = runs.get(r).get(1).get(k)[q];
+		    d[r] = y[r] - x[r];
+		}
+		double paired      = Math.sqrt(variance(d) / replicates);
+		double independent = Math.sqrt((variance(x) + variance(y)) / replicates);
+		out.printf("%.5f %s %.2f %.2f %.2f %.3f %.3f%n",k * a.tau,q == m ? "total" : "" + q,
+			   Equivalence.mean(x),Equivalence.mean(y),Equivalence.mean(d),paired,independent);
+	    }
+    }
+
+    static double variance(double[] x){
+	double mean = Equivalence.mean(x), s = 0;
+	for (double v : x) s += (v - mean) * (v - mean);
+	return x.length > 1 ? s / (x.length - 1) : 0.0;
+    }
+
+    /**
+     * Main method - arguments from command line:
+     *   <replicates> <seed> <algorithmA> <GridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>} / <algorithmB> <GridSize> ...
+     * @param args  command line e.g.: java Paired 50 1 RR1M 100 100 0.5 1000 0.5 0.1 / RR1M 100 100 0.5 1000 0.52 0.1
+     */
+    public static void main(String[] args) {
+	int replicates = Integer.parseInt(args[0]);
+	long seed      = Long.parseLong(args[1]);
+	int slash      = Arrays.asList(args).indexOf("/");
+	SimConfig a = SimConfig.parse(args[2],Arrays.copyOfRange(args,3,slash));
+	SimConfig b = SimConfig.parse(args[slash+1],Arrays.copyOfRange(args,slash+2,args.length));
+	new Paired(a,b,replicates,seed).run(System.out);
+	System.exit(0);
+    }
+}
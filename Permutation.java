@@ -0,0 +1,114 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Keyed pseudo-random permutation of 0..size-1, computed on demand in O(1) memory: a 4-round balanced Feistel network
+ * over the smallest even number of bits that covers size, with cycle-walking (values outside 0..size-1 are encrypted
+ * again until one falls inside, fewer than 4 times on average). Any index can be mapped on its own, so a sweep in
+ * permuted order can be divided into ranges.
+ */
+public class Permutation {
+
+    static final int ROUNDS = 4;
+
+    int size;
+    int halfBits;         // bits in each half of the network
+    int mask;             // of a half
+    long key;
+
+    /**
+     * @param size  number of elements
+     */
+    public Permutation(int size){
+	this.size = size;
+	int bits = 64 - Long.numberOfLeadingZeros(Math.max(1,size-1));
+	halfBits = Math.max(1,(bits+1)/2);
+	mask     = (1 << halfBits) - 1;
+    }
+
+    /**
+     * Chooses the permutation
+     * @param key  the key, e.g. a fresh random value each generation
+     */
+    public void setKey(long key){this.key = key;}
+
+    /**
+     * @param index  position in the permuted order, 0..size-1
+     * @return       the element at that position
+     */
+    public int at(int index){
+	long x = index;
+	do x = encrypt(x); while (x >= size);
+	return (int)x;
+    }
+
+    /**
+     * @param x  value of 2*halfBits bits
+     * @return   its encryption, in long as 2*halfBits may be 32
+     */
+    long encrypt(long x){
+	int left  = (int)(x >>> halfBits);
+	int right = (int)x & mask;
+	for (int round=0;round<ROUNDS;round++){
+	    int t = left ^ f(right,round);
+	    left  = right;
+	    right = t;
+	}
+	return ((long)left << halfBits) | right;
+    }
+
+    /**
+     * Round function: a SplitMix64 finaliser of the key, round and half
+     */
+    int f(int half,int round){
+	long z = key + (round + 1) * 0x9E3779B97F4A7C15L + half * 0xD1B54A32D192ED03L;
+	z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+	z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+	return (int)(z ^ (z >>> 31)) & mask;
+    }
+
+    /**
+     * Self-test: the permutation is a bijection of a small odd size, and stays in range for sizes over 2^30 (where the
+     * network has 32 bits)
+     * @param args  none
+     */
+    public static void main(String[] args) {
+	boolean ok = true;
+	Permutation p = new Permutation(1000003);
+	p.setKey(42);
+	boolean[] seen = new boolean[p.size];
+	for (int i=0;i<p.size;i++){
+	    int x = p.at(i);
+	    if (x < 0 || x >= p.size || seen[x]) ok = false;
+	    else seen[x] = true;
+	}
+	for (int size : new int[]{(1 << 30) + 5,Integer.MAX_VALUE}){
+	    p = new Permutation(size);
+	    p.setKey(7);
+	    for (int i=0;i<1000000;i++){
+		int x = p.at((int)((i * 2654435761L) % size));
+		if (x < 0 || x >= size) ok = false;
+	    }
+	}
+	System.out.println(ok ? "ok" : "FAILED");
+	System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.util.random.*;
+
+/**
+ * Counter-based random number generator (Philox4x32-10, Salmon et al. 2011). Each 128-bit block of output is a
+ * keyed function of the seed and a counter (stream, generation, site, draw), so the draws for a site in a given
+ * generation do not depend on what was drawn before, or on which thread draws them.
+ *
+ * at() moves to the start of the draws for a site; draws without positioning continue along the current counter.
+ */
+public class Philox implements RandomGenerator {
+
+    static final int M0 = 0xD2511F53, M1 = 0xCD9E8D57;  // multipliers
+    static final int W0 = 0x9E3779B9, W1 = 0xBB67AE85;  // Weyl key schedule
+
+    int k0,k1;                   // key, from the seed
+    int draw,site,generation,stream;  // counter
+    long spare;                  // second 64 bits of the last block
+    boolean hasSpare;
+
+    /**
+     * Constructs a generator with a random key
+     */
+    public Philox(){this(new SplittableRandom().nextLong());}
+
+    /**
+     * Constructs a generator
+     * @param seed  the key
+     */
+    public Philox(long seed){
+	k0 = (int)seed;
+	k1 = (int)(seed >>> 32);
+    }
+
+    /**
+     * @return  a generator with the same key, at the same counter (for another thread)
+     */
+    public Philox copy(){
+	Philox p = new Philox(((long)k1 << 32) | (k0 & 0xFFFFFFFFL));
+	p.at(stream,generation,site);
+	p.draw = draw;
+	return p;
+    }
+
+    /**
+     * Positions the counter at the first draw for a site
+     * @param stream      kind of draw, e.g. CA.DEATHS
+     * @param generation  generation number
+     * @param site        site index, or -1 for draws not belonging to a site
+     */
+    public void at(int stream,long generation,int site){
+	this.stream     = stream;
+	this.generation = (int)generation;
+	this.site       = site;
+	draw            = 0;
+	hasSpare        = false;
+    }
+
+    /**
+     * @return  next 64 random bits
+     */
+    public long nextLong(){
+	if (hasSpare){hasSpare = false; return spare;}
+	int c0 = draw++, c1 = site, c2 = generation, c3 = stream;
+	int key0 = k0, key1 = k1;
+	for (int round=0;round<10;round++){
+	    long p0 = (M0 & 0xFFFFFFFFL) * (c0 & 0xFFFFFFFFL);
+	    long p1 = (M1 & 0xFFFFFFFFL) * (c2 & 0xFFFFFFFFL);
+	    c0 = (int)(p1 >>> 32) ^ c1 ^ key0;
+	    c1 = (int)p1;
+	    c2 = (int)(p0 >>> 32) ^ c3 ^ key1;
+	    c3 = (int)p0;
+	    key0 += W0;
+	    key1 += W1;
+	}
+	spare    = ((long)c3 << 32) | (c2 & 0xFFFFFFFFL);
+	hasSpare = true;
+	return ((long)c1 << 32) | (c0 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Prints the first block for counter and key zero, to check against the published test vector
+     * (6627e8d5 e169c58d bc57ac4c 9b00dbd8)
+     * @param args  none
+     */
+    public static void main(String[] args){
+	Philox p = new Philox(0);
+	p.at(0,0,0);
+	long a = p.nextLong(), b = p.nextLong();
+	System.out.printf("%08x %08x %08x %08x%n",(int)a,(int)(a >>> 32),(int)b,(int)(b >>> 32));
+    }
+}
@@ -26,9 +26,10 @@ import java.awt.*;
 /**
  * Main class for RFd2M (discrete time CA, synchronous delayed updating using two arrays, multiple births)
  */
-public class RFd2M extends CARM {
+public final class RFd2M extends CARM {
 
-    Integer[] siteOrder = new Integer[n*n]; // Integer array of site indices (as object so can use Collections.shuffle)
+    int[] siteOrder;      // site indices, shuffled each generation, or null and
+    Permutation order;    //   the order as a permutation (gca.order=feistel)
 
     /**
      * Constructs an RFd2M simulator
@@ -39,6 +40,16 @@ public class RFd2M extends CARM {
      */
     public RFd2M(int n,int m,double tau,boolean draw){
 	super(n,m,tau,draw);
+	setFeistel(false);
+    }
+
+    /**
+     * Chooses the visiting order of the sites
+     * @param feistel  true for a Permutation, false for a shuffled array
+     */
+    public void setFeistel(boolean feistel){
+	order     = feistel ? new Permutation(n*n) : null;
+	siteOrder = feistel ? null : new int[n*n];
     }
 
     /**
@@ -49,17 +60,28 @@ public class RFd2M extends CARM {
     void doBirths(int[][]X,int[][]Y){
 		int species = -1;
 		// Shuffle array of indices so we can go through grid in random order
-		Collections.shuffle(Arrays.asList(siteOrder));
+		long t = tick();
+		if (order != null) rekey(order);
+		else {
+		    gen.at(SHUFFLE,generation,-1);
+		    gen.shuffle(siteOrder);
+		}
+		t = lap(SHUFFLE,t);
+		boolean uniform = uniform();
+		long[] c0 = uniform ? birthCDF[0] : null, c1 = uniform ? birthCDF[m-1] : null;  // one or two species: hoisted
 		// Update each site
-		for (int siteindex : siteOrder) {
+		for (int s=0;s<n*n;s++) {
+			int siteindex = order != null ? order.at(s) : siteOrder[s];
 			int i = siteindex/n;
 			int j = siteindex%n;
 			species = X[i][j];
+			gen.at(BIRTHS,generation,siteindex);
 			if (species != empty){
-			int numberOfBirths = numberOfBirths(birthRate[species]);
+			int numberOfBirths = uniform ? numberOfBirths(species == 0 ? c0 : c1) : numberOfBirths(species,i,j);
 			for (int k=0;k<numberOfBirths;k++) birth(species,Y,i,j);
 		    }
 		}
+		lap(BIRTHS,t);
     }
 
     /**
@@ -67,27 +89,34 @@ public class RFd2M extends CARM {
      * [This method is actually the same as doGeneration in RFd2S, but calls a different version of doBirths]
      */
     public void doGeneration(){
-		//fill arrays for ordering of events (local to the class)
-		for (int i=0; i < siteOrder.length; i++) {
-			siteOrder[i] = i;
-		}
+		startStep(tau);
+		// Fill arrays for ordering of events
+		if (siteOrder != null)
+		    for (int i=0; i < siteOrder.length; i++) {
+			    siteOrder[i] = i;
+		    }
 
 		// Death-birth ordering, newborns may not survive to reproduce
-		copy(A,B);		
+		long t = tick();
+		copy(A,B);
+		t = lap(COPY,t);
 		doDeaths(A,B);
+		lap(DEATHS,t);
 		doBirths(B,B);
-		copy(B,A); 
+		t = tick();
+		copy(B,A);
+		lap(COPY,t);
+		siteUpdates += n*n;
+		generation++;
 
-		time = time + tau;
-		if (draw){plot(); pause(100);}
-		show();
+		endStep(tau);
     }
 
     /**
      * Main method - arguments from command line: <GridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>}
      * @param args  command line e.g.: java RFd2M 100 1000 0.5 1000 1.0 0.1 1000 0.5 0.05
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
 	int n        = Integer.parseInt(args[0]);          // size of grid
 	int maxTime  = Integer.parseInt(args[1]);          // number of iterations
@@ -101,15 +130,18 @@ public class RFd2M extends CARM {
 
 	while (reps > 0){
 	    RFd2M rdb2m = new RFd2M(n,m,tau,draw);
+	    rdb2m.setFromProperties();
 	    for (int i=1;i<=m;i++){
 		int species = i-1;
-		int pop  = Integer.parseInt(args[3*i]);
+		int pop  = LatticeInit.spec == null ? Integer.parseInt(args[3*i]) : 0;
 		rdb2m.setBirthRate(species,Double.parseDouble(args[3*i+1]));
 		rdb2m.setDeathRate(species,Double.parseDouble(args[3*i+2]));
 		for (int j=0;j<pop;j++) rdb2m.add(species);
 	    }	
+	    if (LatticeInit.spec != null) rdb2m.setLattice(LatticeInit.fromProperties(n,m,rdb2m.gen));
 	    rdb2m.show();
 	    while (rdb2m.time < maxTime) rdb2m.doGeneration();
+	    rdb2m.closeSnapshots();
 	    reps--;
 	}
 	System.exit(0);
@@ -26,9 +26,10 @@ import java.awt.*;
 /**
  * Main class for RFd2S (discrete time CA, synchronous delayed updating using two arrays, multiple births)
  */
-public class RFd2S extends CARS {
+public final class RFd2S extends CARS {
 
-    Integer[] siteOrder = new Integer[n*n]; // Integer array of site indices (as object so can use Collections.shuffle)
+    int[] siteOrder;      // site indices, shuffled each generation, or null and
+    Permutation order;    //   the order as a permutation (gca.order=feistel)
 
     /**
      * Constructs an RFd2S simulator
@@ -39,6 +40,16 @@ public class RFd2S extends CARS {
      */
     public RFd2S(int n,int m,double tau,boolean draw){
 	super(n,m,tau,draw);
+	setFeistel(false);
+    }
+
+    /**
+     * Chooses the visiting order of the sites
+     * @param feistel  true for a Permutation, false for a shuffled array
+     */
+    public void setFeistel(boolean feistel){
+	order     = feistel ? new Permutation(n*n) : null;
+	siteOrder = feistel ? null : new int[n*n];
     }
 
     /**
@@ -49,43 +60,61 @@ public class RFd2S extends CARS {
     void doBirths(int[][]X,int[][]Y){
 		int species = -1;
 		// shuffle array of indices so we can go through grid in random order
-		Collections.shuffle(Arrays.asList(siteOrder));
+		long t = tick();
+		if (order != null) rekey(order);
+		else {
+		    gen.at(SHUFFLE,generation,-1);
+		    gen.shuffle(siteOrder);
+		}
+		t = lap(SHUFFLE,t);
+		boolean uniform = uniform();
+		long b0 = uniform ? birthThreshold[0] : 0, b1 = uniform ? birthThreshold[m-1] : 0;  // one or two species: hoisted
 		// update each site    
-		for (int siteindex : siteOrder) {
+		for (int s=0;s<n*n;s++) {
+			int siteindex = order != null ? order.at(s) : siteOrder[s];
 			int i = siteindex/n;
 			int j = siteindex%n;
 			species = X[i][j];
-			if (species != empty && gen.nextDouble() <= pBirth[species]) {
+			gen.at(BIRTHS,generation,siteindex);
+			if (species != empty && (uniform ? gen.bernoulli(species == 0 ? b0 : b1) : givesBirth(species,i,j))) {
 				birth(species,Y,i,j);
 			}
 		}
+		lap(BIRTHS,t);
     }
 
     /**
      * Carries out single generation (all sites considered for birth & death). Implements Algorithm RFd2S (mathematically equivalent).
      */
     public void doGeneration(){
+		startStep(tau);
 		// Fill arrays for ordering of events
-		for (int i=0; i < siteOrder.length; i++) {
-			siteOrder[i] = i;
-		}
+		if (siteOrder != null)
+		    for (int i=0; i < siteOrder.length; i++) {
+			    siteOrder[i] = i;
+		    }
 
 		// death-birth ordering, newborns may not survive to reproduce
-		copy(A,B);		
+		long t = tick();
+		copy(A,B);
+		t = lap(COPY,t);
 		doDeaths(A,B);
+		lap(DEATHS,t);
 		doBirths(B,B);
+		t = tick();
 		copy(B,A);
+		lap(COPY,t);
+		siteUpdates += n*n;
+		generation++;
 
-		time = time + tau;
-		if (draw){plot(); pause(100);}
-		show();
+		endStep(tau);
     }
 
     /**
      * Main method - arguments from command line: <GridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>}
      * @param args  command line e.g.: java RFd2S 100 1000 0.5 1000 1.0 0.1 1000 0.5 0.05
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
 	int n        = Integer.parseInt(args[0]);          // size of grid
 	int maxTime  = Integer.parseInt(args[1]);          // number of iterations
@@ -99,15 +128,18 @@ public class RFd2S extends CARS {
 
 	while (reps > 0){
 	    RFd2S rdb2 = new RFd2S(n,m,tau,draw);
+	    rdb2.setFromProperties();
 	    for (int i=1;i<=m;i++){
 		int species = i-1;
-		int pop  = Integer.parseInt(args[3*i]);
+		int pop  = LatticeInit.spec == null ? Integer.parseInt(args[3*i]) : 0;
 		rdb2.setBirthRate(species,Double.parseDouble(args[3*i+1]));
 		rdb2.setDeathRate(species,Double.parseDouble(args[3*i+2]));
 		for (int j=0;j<pop;j++) rdb2.add(species);
 	    }	
+	    if (LatticeInit.spec != null) rdb2.setLattice(LatticeInit.fromProperties(n,m,rdb2.gen));
 	    rdb2.show();
 	    while (rdb2.time < maxTime) rdb2.doGeneration();
+	    rdb2.closeSnapshots();
 	    reps--;
 	}
 	System.exit(0);
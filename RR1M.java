@@ -26,9 +26,10 @@ import java.awt.*;
 /**
  * Main class for RR1M (discrete time CA with multiple births, asynchronous using a single array)
  */
-public class RR1M extends CARM {
+public final class RR1M extends CARM {
 
-    Integer[] siteEventOrder;
+    int[] siteEventOrder;      // +-(site+1) for births and deaths, shuffled, or null and
+    Permutation order;         //   the order as a permutation of 0..2n^2-1 (gca.order=feistel)
 
     /**
      * Constructs an RR1M simulator
@@ -39,7 +40,18 @@ public class RR1M extends CARM {
      */
     public RR1M(int n,int m,double tau,boolean draw){
 	super(n,m,tau,draw);
-	siteEventOrder = new Integer[2*n*n]; // Integer array of site indices (as object so can use Collections.shuffle)
+	setFeistel(false);
+    }
+
+    /**
+     * Chooses the visiting order of the site events
+     * @param feistel  true for a Permutation, false for a shuffled array
+     */
+    public void setFeistel(boolean feistel){
+	order          = feistel ? new Permutation(2*n*n) : null;
+	siteEventOrder = null;
+	if (feistel) return;
+	siteEventOrder = new int[2*n*n];
 	for (int i=0;i < (siteEventOrder.length/2);i++) siteEventOrder[i] = i+1; 
 	for (int i=(siteEventOrder.length/2);i < siteEventOrder.length;i++) siteEventOrder[i] = -(siteEventOrder.length - i); 
     }
@@ -48,28 +60,47 @@ public class RR1M extends CARM {
      * Carries out single generation (all sites considered for birth & death). Implements Algorithm RR1M (mathematically equivalent).
      */
     public void doGeneration(){
+	startStep(tau);
 	int species = -1;
-	Collections.shuffle(Arrays.asList(siteEventOrder));
-	for (int eventindex : siteEventOrder) {
+	long t = tick();
+	if (order != null) rekey(order);
+	else {
+	    gen.at(SHUFFLE,generation,-1);
+	    gen.shuffle(siteEventOrder);
+	}
+	t = lap(SHUFFLE,t);
+	boolean uniform = uniform();
+	long d0 = 0, d1 = 0;
+	long[] c0 = null, c1 = null;
+	if (uniform){d0 = deathThreshold[0]; d1 = deathThreshold[m-1]; c0 = birthCDF[0]; c1 = birthCDF[m-1];}  // one or two species: hoisted
+	for (int s=0;s<2*n*n;s++) {
+	    int eventindex;
+	    if (order == null) eventindex = siteEventOrder[s];
+	    else {
+		int e = order.at(s);  // 0..n^2-1 births, n^2..2n^2-1 deaths
+		eventindex = e < n*n ? e+1 : -(e-n*n+1);
+	    }
 	    int i = (Math.abs(eventindex)-1)/n; // zero-indexing correction
 	    int j = (Math.abs(eventindex)-1)%n;
 	    species = A[i][j];
 	    if (species != empty) {
-		if (eventindex < 0 && gen.nextDouble() <= pDeath[species]) death(species,A,i,j);
-		int numberOfBirths = numberOfBirths(birthRate[species]);
+		gen.at(eventindex < 0 ? DEATHS : BIRTHS,generation,i*n+j);
+		if (eventindex < 0 && (uniform ? gen.bernoulli(species == 0 ? d0 : d1) : dies(species,i,j))) death(species,A,i,j);
+		int numberOfBirths = uniform ? numberOfBirths(species == 0 ? c0 : c1) : numberOfBirths(species,i,j);
 		for (int k=0;k<numberOfBirths;k++) birth(species,A,i,j);
 	    }
 	}
-	time = time + tau;
-	if (draw){plot(); pause(100);}
-	show();
+	lap(SWEEP,t);
+	siteUpdates += n*n;
+	generation++;
+	endStep(tau);
     }
 
     /**
      * Main method - arguments from command line: <GridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>}
      * @param args  command line e.g.: java RR1M 100 1000 0.5 1000 1.0 0.1 1000 0.5 0.05
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 	int n        = Integer.parseInt(args[0]);          // size of grid
 	int maxTime  = Integer.parseInt(args[1]);          // number of iterations
 	double tau   = Double.parseDouble(args[2]);        // the click of the clock
@@ -82,15 +113,18 @@ public class RR1M extends CARM {
 
 	while (reps > 0){
 	    RR1M rallr1m = new RR1M(n,m,tau,draw);
+	    rallr1m.setFromProperties();
 	    for (int i=1;i<=m;i++){
 		int species = i-1;
-		int pop  = Integer.parseInt(args[3*i]);
+		int pop  = LatticeInit.spec == null ? Integer.parseInt(args[3*i]) : 0;
 		rallr1m.setBirthRate(species,Double.parseDouble(args[3*i+1]));
 		rallr1m.setDeathRate(species,Double.parseDouble(args[3*i+2]));
 		for (int j=0;j<pop;j++) rallr1m.add(species);
 	    }	
+	    if (LatticeInit.spec != null) rallr1m.setLattice(LatticeInit.fromProperties(n,m,rallr1m.gen));
 	    rallr1m.show();
 	    while (rallr1m.time < maxTime) rallr1m.doGeneration();
+	    rallr1m.closeSnapshots();
 	    reps--;
 	}
 	System.exit(0);
@@ -0,0 +1,185 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+
+/**
+ * On-disk cache of simulation output, keyed by a hash of the full configuration including the seed
+ *
+ * Entries are written to a temporary file and renamed into place, so readers in other processes never see a partial
+ * entry. A hit touches the entry, and eviction (least recently used first, down to maxBytes) holds a lock file so that
+ * several processes may share one cache directory.
+ */
+public class ResultCache {
+
+    File dir;
+    long maxBytes;
+    Object monitor;       // shared by every cache on this directory in the JVM, see evict
+    static String suffix = ".txt";
+    static long staleTemp = 3600000;  // temporary files older than this (ms) are left over from a crashed writer
+    static Map<String,String> digests = new ConcurrentHashMap<String,String>();  // file contents hashed, see digest
+    static Map<String,Object> locks = new ConcurrentHashMap<String,Object>();    // canonical directory -> its monitor
+
+    /**
+     * Opens (creating if necessary) a cache directory
+     * @param dir       cache directory
+     * @param maxBytes  size bound of the cache
+     * @throws IOException
+     */
+    public ResultCache(File dir,long maxBytes) throws IOException {
+	this.dir      = dir;
+	this.maxBytes = maxBytes;
+	Files.createDirectories(dir.toPath());
+	monitor       = locks.computeIfAbsent(dir.getCanonicalPath(),k -> new Object());
+    }
+
+    /**
+     * @param config  a seeded configuration
+     * @return        hex SHA-256 of the canonical configuration
+     */
+    static String key(SimConfig config){
+	try {
+	    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+	    byte[] hash = digest.digest(config.canonical().getBytes(StandardCharsets.UTF_8));
+	    StringBuilder s = new StringBuilder();
+	    for (byte b : hash) s.append(String.format("%02x",b));
+	    return s.toString();
+	}
+	catch (NoSuchAlgorithmException e) {throw new IllegalStateException(e);}
+    }
+
+    /**
+     * Hashes the contents of a file named in a configuration, so that a changed file does not give stale entries
+     * @param file  e.g. a habitat raster or an initial lattice
+     * @return      hex SHA-256 of its contents, remembered while its size and modification time are unchanged
+     */
+    static String digest(File file){
+	String id = file.getAbsolutePath() + " " + file.length() + " " + file.lastModified();
+	return digests.computeIfAbsent(id,k -> {
+		try (InputStream in = new FileInputStream(file)) {
+		    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		    byte[] buffer = new byte[1 << 16];
+		    for (int r;(r = in.read(buffer)) > 0;) digest.update(buffer,0,r);
+		    StringBuilder s = new StringBuilder();
+		    for (byte b : digest.digest()) s.append(String.format("%02x",b));
+		    return s.toString();
+		}
+		catch (IOException e) {throw new UncheckedIOException(e);}
+		catch (NoSuchAlgorithmException e) {throw new IllegalStateException(e);}
+	    });
+    }
+
+    /**
+     * Looks up the output of a run
+     * @param entry  file of the entry
+     * @param out    destination of the stored output
+     * @return       false on a miss
+     * @throws IOException
+     */
+    boolean get(Path entry,PrintStream out) throws IOException {
+	try {Files.copy(entry,out);}
+	catch (NoSuchFileException e) {return false;}
+	try {Files.setLastModifiedTime(entry,FileTime.fromMillis(System.currentTimeMillis()));}
+	catch (NoSuchFileException e) {}  // evicted by another process since the read
+	return true;
+    }
+
+    /**
+     * Writes the output of a run from the cache, on a miss running it into a temporary file, which is then copied to
+     * out, renamed into place and followed by eviction down to the size bound (unseeded runs are never cached)
+     * @param config  the configuration
+     * @param out     destination of the output
+     * @throws IOException
+     */
+    void run(SimConfig config,PrintStream out) throws IOException {
+	if (!config.seeded){
+	    config.run(out);
+	    return;
+	}
+	Path entry = new File(dir,key(config) + suffix).toPath();
+	if (get(entry,out)) return;
+	Path temp = Files.createTempFile(dir.toPath(),"entry",".tmp");
+	// flushed at each output, so that the modification time shows the writer is alive (see staleTemp)
+	try (PrintStream file = new PrintStream(new BufferedOutputStream(Files.newOutputStream(temp)),true,"UTF-8")){
+	    config.run(file);
+	    if (file.checkError()) throw new IOException("cannot write " + temp);
+	}
+	Files.copy(temp,out);
+	Files.move(temp,entry,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+	evict();
+    }
+
+    /**
+     * Deletes least recently used entries until the cache is within maxBytes, holding the lock file. File locks are
+     * held by the whole JVM, and a second lock() on the same file throws OverlappingFileLockException, so caches on
+     * one directory in this JVM first take its shared monitor.
+     * @throws IOException
+     */
+    void evict() throws IOException {
+	synchronized (monitor){evictLocked();}
+    }
+
+    void evictLocked() throws IOException {
+	FileChannel lock = FileChannel.open(new File(dir,".lock").toPath(),StandardOpenOption.CREATE,StandardOpenOption.WRITE);
+	try {
+	    lock.lock();
+	    File[] files = dir.listFiles();
+	    ArrayList<File> entries = new ArrayList<File>();
+	    long total = 0;
+	    long now   = System.currentTimeMillis();
+	    for (File f : files){
+		if (f.getName().endsWith(suffix)){entries.add(f); total = total + f.length();}
+		else if (f.getName().endsWith(".tmp") && now - f.lastModified() > staleTemp) f.delete();
+	    }
+	    if (total <= maxBytes) return;
+	    final HashMap<File,Long> used = new HashMap<File,Long>();  // snapshot, as hits may touch entries meanwhile
+	    for (File f : entries) used.put(f,f.lastModified());
+	    Collections.sort(entries,new Comparator<File>(){
+		    public int compare(File a,File b){return Long.compare(used.get(a),used.get(b));}
+		});
+	    for (File f : entries){
+		if (total <= maxBytes) break;
+		long length = f.length();
+		if (f.delete()) total = total - length;
+	    }
+	}
+	finally {lock.close();}
+    }
+
+    /**
+     * Main method - arguments from command line: <cacheDir> <maxMB> <seed> <algorithmName> <gridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>}
+     * @param args  command line e.g.: java ResultCache cache 1024 42 Gill 100 1000 0.5 1000 1.0 0.1
+     */
+    public static void main(String[] args) throws IOException {
+	ResultCache cache = new ResultCache(new File(args[0]),Long.parseLong(args[1]) << 20);
+	long seed         = Long.parseLong(args[2]);
+	SimConfig config  = SimConfig.parse(args[3],Arrays.copyOfRange(args,4,args.length)).withSeed(seed);
+	cache.run(config,System.out);
+	System.exit(0);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.random.*;
+
+/**
+ * Random number source of the simulators, wrapping any java.util.random generator (L64X128MixRandom by default, or
+ * as named by the system property gca.rng, e.g. Xoshiro256PlusPlus or Random for java.util.Random) with samplers
+ * for the hot paths:
+ *
+ *  - Bernoulli trials compare 53 random bits against an integer threshold precomputed from the probability, which
+ *    gives exactly the outcome of nextDouble() <= p for the same bits
+ *  - neighbour directions take 3 bits each from a recycled 64-bit draw (21 per draw)
+ *  - exponential variates come from the generator's ziggurat sampler, not -log(1-U)
+ *
+ * With gca.rng=Philox the source is counter-based: at() keys the following draws by (stream, generation, site), so
+ * a generation gives the same lattice however its sites are ordered or divided between threads.
+ *
+ * With gca.crn=true (common random numbers) the source keeps a generator for each kind of draw (the visiting order,
+ * deaths, births, neighbour choices and anything else), all derived from the seed, and at() switches between them. Two
+ * runs with the same seed but different parameters then use the same random numbers for the same purposes, so their
+ * difference has far less noise than that of independent runs.
+ */
+public class Rng {
+
+    static String defaultAlgorithm = System.getProperty("gca.rng","L64X128MixRandom");
+    static final int VERSION = 4;  // of the random streams of seeded runs, in the result cache key: bump on any change
+                                   // to the draws (2: thresholds, direction bits, ziggurat; 3: IndexedRandomSet; 4: SpeciesIndex)
+    static boolean defaultStreams = Boolean.getBoolean("gca.crn");
+    static long ONE = 1L << 53;  // threshold of a certain event
+    static final int NEIGHBOURS = 3, OTHER = 4, STREAMS = 5;  // streams after CA.SHUFFLE, CA.DEATHS and CA.BIRTHS
+
+    String algorithm;
+    RandomGenerator generator;
+    RandomGenerator[] streams;   // common random numbers: a generator for each kind of draw, else null
+    long bits;                   // unused random bits for nextDirection()
+    int directions;              // number of 3-bit directions left in bits
+
+    /**
+     * Constructs an unseeded source using the default algorithm
+     */
+    public Rng(){this(defaultAlgorithm);}
+
+    /**
+     * Constructs an unseeded source
+     * @param algorithm  name of a java.util.random algorithm
+     */
+    public Rng(String algorithm){
+	setAlgorithm(algorithm);
+	if (defaultStreams) setStreams(true);
+    }
+
+    /**
+     * Switches to another algorithm, unseeded
+     * @param algorithm  name of a java.util.random algorithm, or Philox
+     */
+    public void setAlgorithm(String algorithm){
+	this.algorithm = algorithm;
+	generator      = counterBased() ? new Philox() : RandomGeneratorFactory.of(algorithm).create();
+	directions     = 0;
+	if (streams != null) setStreams(true);
+    }
+
+    /**
+     * Switches common random numbers on or off, unseeded (a counter-based source already keys its draws by kind)
+     * @param on  true for a generator per kind of draw
+     */
+    public void setStreams(boolean on){
+	streams = null;
+	if (!on || counterBased()) return;
+	streams = new RandomGenerator[STREAMS];
+	for (int k=0;k<STREAMS;k++) streams[k] = RandomGeneratorFactory.of(algorithm).create();
+	generator  = streams[OTHER];
+	directions = 0;
+    }
+
+    /**
+     * Reseeds, so that all subsequent draws depend only on seed (and the algorithm)
+     * @param seed  the seed
+     */
+    public void setSeed(long seed){
+	generator  = counterBased() ? new Philox(seed) : RandomGeneratorFactory.of(algorithm).create(seed);
+	directions = 0;
+	if (streams == null) return;
+	for (int k=0;k<STREAMS;k++){
+	    long z = seed + (k+1) * 0x9E3779B97F4A7C15L;  // SplitMix64, so the streams' seeds are unrelated
+	    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+	    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+	    streams[k] = RandomGeneratorFactory.of(algorithm).create(z ^ (z >>> 31));
+	}
+	generator = streams[OTHER];
+    }
+
+    /**
+     * @return  true if draws can be keyed with at()
+     */
+    boolean counterBased(){return algorithm.equals("Philox");}
+
+    /**
+     * Keys the following draws by site, for a counter-based source, or takes them from the stream of their kind with
+     * common random numbers (no effect otherwise)
+     * @param stream      kind of draw: CA.SHUFFLE, CA.DEATHS or CA.BIRTHS
+     * @param generation  generation number
+     * @param site        site index, or -1 for draws not belonging to a site
+     */
+    void at(int stream,long generation,int site){
+	if (streams != null){generator = streams[stream]; return;}
+	if (!(generator instanceof Philox)) return;
+	((Philox)generator).at(stream,generation,site);
+	directions = 0;
+    }
+
+    /**
+     * @return  a source with the same key, for drawing keyed values on another thread (counter-based sources only)
+     */
+    Rng fork(){
+	Rng r       = new Rng(algorithm);
+	r.generator = ((Philox)generator).copy();
+	return r;
+    }
+
+    /**
+     * Converts a probability into a threshold for bernoulli()
+     * @param p  probability
+     * @return   largest 53-bit value u with u * 2^-53 <= p
+     */
+    static long threshold(double p){
+	if (p >= 1.0) return ONE;
+	if (p <= 0.0) return 0;
+	return (long)Math.floor(p * 0x1p53);
+    }
+
+    /**
+     * @param threshold  from threshold(p)
+     * @return           true with probability p, as nextDouble() <= p
+     */
+    boolean bernoulli(long threshold){return (generator.nextLong() >>> 11) <= threshold;}
+
+    /**
+     * Converts a probability into a 31-bit threshold for bernoulli31() (compact, for per-site tables)
+     * @param p  probability
+     * @return   p * 2^31, rounded
+     */
+    static int threshold31(double p){return (int)Math.min(Integer.MAX_VALUE,Math.max(0,Math.round(p * 0x1p31)));}
+
+    /**
+     * @param threshold  from threshold31(p)
+     * @return           true with probability p (to within 2^-31)
+     */
+    boolean bernoulli31(int threshold){return (int)(generator.nextLong() >>> 33) < threshold;}
+
+    /**
+     * @return  uniform 53-bit value, to compare against thresholds
+     */
+    long nextBits(){return generator.nextLong() >>> 11;}
+
+    /**
+     * @return  uniform direction 0..7 in the Moore neighbourhood
+     */
+    int nextDirection(){
+	if (directions == 0){bits = (streams != null ? streams[NEIGHBOURS] : generator).nextLong(); directions = 21;}
+	int d = (int)bits & 7;
+	bits = bits >>> 3;
+	directions--;
+	return d;
+    }
+
+    double nextDouble(){return generator.nextDouble();}
+    int    nextInt(int bound){return generator.nextInt(bound);}
+    long   nextLong(){return generator.nextLong();}
+
+    /**
+     * @return  exponentially distributed variate with mean 1 (ziggurat)
+     */
+    double nextExponential(){return generator.nextExponential();}
+
+    /**
+     * Shuffles an array in place (Fisher-Yates, as Collections.shuffle)
+     * @param a  the array
+     */
+    void shuffle(Object[] a){
+	for (int i=a.length;i>1;i--){
+	    int k    = nextInt(i);
+	    Object t = a[i-1];
+	    a[i-1]   = a[k];
+	    a[k]     = t;
+	}
+    }
+
+    /**
+     * Shuffles an array of ints in place, as shuffle(Object[]) with the same draws (no boxing in the visiting orders)
+     * @param a  the array
+     */
+    void shuffle(int[] a){
+	for (int i=a.length;i>1;i--){
+	    int k  = nextInt(i);
+	    int t  = a[i-1];
+	    a[i-1] = a[k];
+	    a[k]   = t;
+	}
+    }
+}
@@ -0,0 +1,272 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * Parameters of a single simulation run (algorithm, lattice, timing and per-species values), as given on the command line
+ */
+public class SimConfig {
+
+    String algorithm;     // Gill, RFd2S, RFd2M, RR1S or RR1M
+    int n;                // n X n grid
+    int maxTime;          // maximum time to run the simulation
+    double tau;           // timestep (output timestep for Gill)
+    int[] initPopn;       // m initial population sizes
+    double[] bRate;       // m birth rates
+    double[] dRate;       // m death rates
+    boolean seeded;       // true <-> run is reproducible from seed
+    long seed;            // seed of the random number generator
+    String rng;           // random number algorithm, null for Rng.defaultAlgorithm
+    boolean crn;          // common random numbers (a random number stream per kind of draw), see Rng
+    String init;          // initial lattice as a LatticeInit spec, null to place initPopn at random sites
+    double tolerance;     // > 0 <-> adaptive substeps of the discrete time algorithms (see CA.startStep)
+    boolean feistel;      // visiting order of the discrete time algorithms by Permutation, see CA.setFeistel
+
+    static String[] algorithms = {"Gill","RFd2S","RFd2M","RR1S","RR1M"};
+
+    /**
+     * Constructs a configuration for m species, all parameters zero
+     * @param algorithm  name of the simulation algorithm
+     * @param n          size of lattice
+     * @param maxTime    maximum time to run the simulation
+     * @param tau        length of timestep
+     * @param m          number of species
+     */
+    public SimConfig(String algorithm,int n,int maxTime,double tau,int m){
+	this.algorithm = algorithm;
+	this.n         = n;
+	this.maxTime   = maxTime;
+	this.tau       = tau;
+	initPopn       = new int[m];
+	bRate          = new double[m];
+	dRate          = new double[m];
+    }
+
+    /**
+     * Builds a configuration from command line arguments laid out as for the main methods
+     * @param algorithm  name of the simulation algorithm
+     * @param args       <gridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>}, any trailing option is ignored
+     * @return           the configuration
+     */
+    static SimConfig parse(String algorithm,String[] args){
+	int m = (args.length/3) - 1;
+	SimConfig config = new SimConfig(algorithm,Integer.parseInt(args[0]),Integer.parseInt(args[1]),Double.parseDouble(args[2]),m);
+	for (int i=1;i<=m;i++){
+	    config.initPopn[i-1] = Integer.parseInt(args[3*i]);
+	    config.bRate[i-1]    = Double.parseDouble(args[3*i+1]);
+	    config.dRate[i-1]    = Double.parseDouble(args[3*i+2]);
+	}
+	return config.properties();
+    }
+
+    /**
+     * Takes the settings given to the command line tools as system properties: gca.init, gca.tolerance, gca.order
+     * @return  this configuration
+     */
+    SimConfig properties(){
+	init      = System.getProperty("gca.init");
+	tolerance = Double.parseDouble(System.getProperty("gca.tolerance","0"));
+	feistel   = System.getProperty("gca.order","shuffle").equals("feistel");
+	return this;
+    }
+
+    /**
+     * Constructs the simulator for this configuration and seeds its initial population, for use in-process: the
+     * simulator has no output stream, so results are taken through observers (see CA.addObserver), step() and runUntil()
+     * @return  simulator at time 0
+     */
+    public CA build(){
+	CA ca = build(false);
+	ca.setOutput(null);
+	return ca;
+    }
+
+    /**
+     * Constructs the simulator for this configuration and seeds its initial population
+     * @param draw   boolean - show visualisation?
+     * @return       simulator at time 0
+     */
+    CA build(boolean draw){
+	CA ca = engine(draw);
+	if (init != null){
+	    try {ca.setLattice(LatticeInit.parse(init,n,species(),ca.gen));}
+	    catch (IOException e) {throw new UncheckedIOException(e);}
+	    return ca;
+	}
+	for (int species=0;species<species();species++)
+	    for (int j=0;j<initPopn[species];j++) ca.add(species);
+	return ca;
+    }
+
+    /**
+     * Constructs the simulator for this configuration, starting from a given lattice instead of a random initial
+     * population, for use in-process as build()
+     * @param lattice  species of each site, or CA.empty
+     * @return         simulator at time 0
+     */
+    public CA build(int[][] lattice){
+	CA ca = engine(false);
+	ca.setLattice(lattice);
+	ca.setOutput(null);
+	return ca;
+    }
+
+    /**
+     * Constructs the simulator for this configuration with an empty lattice
+     * @param draw   boolean - show visualisation?
+     * @return       simulator at time 0
+     */
+    CA engine(boolean draw){
+	int m = species();
+	CA ca = null;
+	if (algorithm.equals("Gill"))  ca = new Gill(n,m,tau,draw);
+	if (algorithm.equals("RFd2S")) ca = new RFd2S(n,m,tau,draw);
+	if (algorithm.equals("RFd2M")) ca = new RFd2M(n,m,tau,draw);
+	if (algorithm.equals("RR1S"))  ca = new RR1S(n,m,tau,draw);
+	if (algorithm.equals("RR1M"))  ca = new RR1M(n,m,tau,draw);
+	if (ca == null) throw new IllegalArgumentException("unknown algorithm " + algorithm);
+	if (rng != null) ca.gen.setAlgorithm(rng);
+	if (crn) ca.gen.setStreams(true);
+	if (seeded) ca.setSeed(seed);
+	for (int species=0;species<m;species++){
+	    ca.setBirthRate(species,bRate[species]);
+	    ca.setDeathRate(species,dRate[species]);
+	}
+	ca.setMaxTime(maxTime);
+	ca.setTolerance(tolerance);
+	if (feistel) ca.setFeistel(true);
+	return ca;
+    }
+
+    /**
+     * Draws an initial lattice as build() does: from the init spec if set, else with initPopn individuals of each
+     * species at random sites
+     * @param seed  seed of the random number generator
+     * @return      species of each site, or CA.empty
+     * @throws RandomSetException
+     */
+    int[][] lattice(long seed) throws RandomSetException {
+	Rng gen = new Rng();
+	gen.setSeed(seed);
+	if (init != null){
+	    try {return LatticeInit.parse(init,n,species(),gen);}
+	    catch (IOException e) {throw new UncheckedIOException(e);}
+	}
+	IndexedRandomSet freeSpace = new IndexedRandomSet(n*n,gen);
+	freeSpace.addRange(0,n*n);
+	int[][] lattice = new int[n][n];
+	for (int[] row : lattice) Arrays.fill(row,CA.empty);
+	for (int species=0;species<species();species++)
+	    for (int j=0;j<initPopn[species];j++){
+		int x = freeSpace.delete();
+		if (x == IndexedRandomSet.EMPTY) throw new RandomSetException("lattice full");
+		lattice[x/n][x%n] = species;
+	    }
+	return lattice;
+    }
+
+    /**
+     * Copies this configuration for another algorithm
+     * @param algorithm  name of the simulation algorithm
+     * @return           the copy
+     */
+    SimConfig withAlgorithm(String algorithm){
+	SimConfig config = withSeed(seed);
+	config.algorithm = algorithm;
+	config.seeded    = seeded;
+	return config;
+    }
+
+    /**
+     * Runs the simulation to maxTime, writing population sizes in the format of show()
+     * @param out  destination of the output
+     */
+    void run(PrintStream out){
+	CA ca = build(false);
+	ca.setOutput(out);
+	ca.show();
+	ca.runUntil(maxTime);
+    }
+
+    /**
+     * Copies this configuration with the given seed
+     * @param seed  seed of the random number generator
+     * @return      the seeded copy
+     */
+    SimConfig withSeed(long seed){
+	SimConfig config = new SimConfig(algorithm,n,maxTime,tau,species());
+	config.initPopn  = initPopn.clone();
+	config.bRate     = bRate.clone();
+	config.dRate     = dRate.clone();
+	config.seeded    = true;
+	config.seed      = seed;
+	config.rng       = rng;
+	config.crn       = crn;
+	config.init      = init;
+	config.tolerance = tolerance;
+	config.feistel   = feistel;
+	return config;
+    }
+
+    /**
+     * Canonical text of every value that determines the output of a seeded run (doubles in shortest round-trip form)
+     * @return  the canonical form, for hashing
+     */
+    String canonical(){
+	StringBuilder s = new StringBuilder("v" + Rng.VERSION);
+	s.append(' ').append(algorithm).append(' ').append(n).append(' ').append(maxTime).append(' ').append(Double.toString(tau));
+	for (int species=0;species<species();species++)
+	    s.append(' ').append(initPopn[species]).append(' ').append(Double.toString(bRate[species])).append(' ').append(Double.toString(dRate[species]));
+	if (init != null) s.append(" init ").append(LatticeInit.canonical(init));
+	if (System.getProperty("gca.habitat") != null) s.append(" habitat ").append(ResultCache.digest(new File(System.getProperty("gca.habitat"))));
+	if (crn || Rng.defaultStreams) s.append(" crn");
+	if (!algorithm.equals("Gill") && tolerance > 0) s.append(" tolerance ").append(Double.toString(tolerance));
+	if (!algorithm.equals("Gill") && feistel) s.append(" order feistel");
+	return s.append(" seed ").append(seed).append(" rng ").append(rng != null ? rng : Rng.defaultAlgorithm).toString();
+    }
+
+    /**
+     * Estimates the work in a run in site updates, used to schedule long runs first
+     * @return  relative cost of the run
+     */
+    double cost(){
+	double sites = (double)n * n;
+	if (!algorithm.equals("Gill")) return sites * Math.ceil(maxTime/tau);
+	double maxRate = 0.0;  // events per unit time are bounded by a full lattice of the fastest species
+	for (int species=0;species<species();species++) maxRate = Math.max(maxRate,bRate[species] + dRate[species]);
+	return sites * maxTime * maxRate;
+    }
+
+    int species(){return initPopn.length;}
+
+    /**
+     * @return  the configuration as a command line
+     */
+    public String toString(){
+	String s = algorithm +" "+ n +" "+ maxTime +" "+ tau;
+	for (int species=0;species<species();species++) s = s +" "+ initPopn[species] +" "+ bRate[species] +" "+ dRate[species];
+	if (seeded) s = s +" seed "+ seed;
+	if (rng != null) s = s +" rng "+ rng;
+	return s;
+    }
+}
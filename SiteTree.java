@@ -0,0 +1,91 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Sum tree (Fenwick tree) over the event propensities of the sites of a lattice: update and proportional selection
+ * of a site in O(log n^2)
+ */
+public class SiteTree {
+
+    double[] tree;        // 1-based Fenwick tree
+    int size;
+    int top;              // largest power of two <= size
+    double total;
+
+    /**
+     * Constructs a tree of zero propensities
+     * @param size  number of sites
+     */
+    public SiteTree(int size){
+	this.size = size;
+	tree      = new double[size+1];
+	top       = Integer.highestOneBit(Math.max(1,size));
+    }
+
+    /**
+     * Adds to the propensity of a site
+     * @param x      the site
+     * @param delta  change of its propensity
+     */
+    void add(int x,double delta){
+	total = total + delta;
+	for (int k=x+1;k<=size;k+=k&-k) tree[k] += delta;
+    }
+
+    /**
+     * @return  sum of all propensities
+     */
+    double total(){return Math.max(0.0,total);}
+
+    /**
+     * Selects a site proportionally to propensity
+     * @param u  uniform in [0,total())
+     * @return   the site x with prefix(x) <= u < prefix(x+1)
+     */
+    int find(double u){
+	int k = 0;
+	for (int step=top;step>0;step>>=1)
+	    if (k + step <= size && tree[k+step] <= u){
+		k = k + step;
+		u = u - tree[k];
+	    }
+	return Math.min(k,size-1);
+    }
+
+    /**
+     * Sets the propensity of a site directly, for rebuilding: set every site, then build()
+     * @param x           the site
+     * @param propensity  its propensity
+     */
+    void set(int x,double propensity){tree[x+1] = propensity;}
+
+    /**
+     * Rebuilds the tree in O(size) from propensities given by set, discarding rounding error accumulated by add
+     */
+    void build(){
+	total = 0.0;
+	for (int k=1;k<=size;k++) total = total + tree[k];
+	for (int k=1;k<=size;k++){
+	    int parent = k + (k&-k);
+	    if (parent <= size) tree[parent] += tree[k];
+	}
+    }
+}
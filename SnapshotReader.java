@@ -0,0 +1,155 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.zip.*;
+import java.io.*;
+
+/**
+ * Reads a snapshot file written by SnapshotWriter. Frames may be read in any order; reading the frame after the last
+ * one read decodes only that frame, otherwise decoding starts from the nearest key frame before it.
+ */
+public class SnapshotReader implements Closeable {
+
+    RandomAccessFile file;
+    int n;
+    int m;
+    int keyEvery;
+    double[] time;        // per frame
+    long[] offset;
+    int[] length;
+    byte[] sites;         // decoded frame
+    int current = -1;     // number of the decoded frame
+
+    /**
+     * Opens a snapshot file and reads its index
+     * @param f  the snapshot file
+     * @throws IOException
+     */
+    public SnapshotReader(File f) throws IOException {
+	file = new RandomAccessFile(f,"r");
+	if (file.readInt() != SnapshotWriter.MAGIC) throw new IOException(f + " is not a snapshot file");
+	n        = file.readInt();
+	m        = file.readInt();
+	keyEvery = file.readInt();
+	file.seek(file.length() - 16);
+	int frames       = file.readInt();
+	long indexOffset = file.readLong();
+	if (file.readInt() != SnapshotWriter.MAGIC) throw new IOException(f + " has no index (not closed?)");
+	time   = new double[frames];
+	offset = new long[frames];
+	length = new int[frames];
+	DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.getFD())));
+	file.seek(indexOffset);
+	for (int k=0;k<frames;k++){
+	    time[k]   = in.readDouble();
+	    offset[k] = in.readLong();
+	    length[k] = in.readInt();
+	}
+	sites = new byte[n*n];
+    }
+
+    /**
+     * Decodes a frame
+     * @param k  frame number
+     * @return   species + 1 (0 for empty) of site i*n+j; the reader's own array, valid until the next read
+     * @throws IOException
+     */
+    public byte[] read(int k) throws IOException {
+	if (k == current) return sites;
+	int from = (k == current+1) ? k : k - k % keyEvery;
+	Inflater inflater = new Inflater();
+	byte[] compressed = new byte[0];
+	byte[] delta      = new byte[n*n];
+	try {
+	    for (int f=from;f<=k;f++){
+		if (compressed.length < length[f]) compressed = new byte[length[f]];
+		file.seek(offset[f]);
+		file.readFully(compressed,0,length[f]);
+		inflater.reset();
+		inflater.setInput(compressed,0,length[f]);
+		if (inflater.inflate(delta) != delta.length) throw new IOException("short frame " + f);
+		boolean key = f % keyEvery == 0;
+		for (int x=0;x<delta.length;x++) sites[x] = key ? delta[x] : (byte)(sites[x] ^ delta[x]);
+		current = f;
+	    }
+	}
+	catch (DataFormatException e) {throw new IOException("corrupt frame",e);}
+	finally {inflater.end();}
+	return sites;
+    }
+
+    /**
+     * Decodes a frame as a lattice
+     * @param k  frame number
+     * @return   species of site i,j, CA.empty for none
+     * @throws IOException
+     */
+    public int[][] lattice(int k) throws IOException {
+	byte[] s = read(k);
+	int[][] A = new int[n][n];
+	for (int i=0;i<n;i++)
+	    for (int j=0;j<n;j++)
+		A[i][j] = s[i*n+j] - 1;
+	return A;
+    }
+
+    public int    frames(){return time.length;}
+    public double time(int k){return time[k];}
+    public int    size(){return n;}
+    public int    getSpecies(){return m;}
+
+    public void close() throws IOException {file.close();}
+
+    /**
+     * Main method - arguments from command line: <snapshotFile> {<frame>}
+     * Lists the frames (number, time, population of each species and compressed size), or prints one frame as text
+     * (a digit per species, '.' for empty)
+     * @param args  command line e.g.: java SnapshotReader run.gcas 10
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+	SnapshotReader reader = new SnapshotReader(new File(args[0]));
+	int n = reader.size();
+	if (args.length > 1){
+	    byte[] s = reader.read(Integer.parseInt(args[1]));
+	    StringBuilder line = new StringBuilder();
+	    for (int i=0;i<n;i++){
+		line.setLength(0);
+		for (int j=0;j<n;j++) line.append(s[i*n+j] == 0 ? '.' : Character.forDigit(s[i*n+j]-1,36));
+		System.out.println(line);
+	    }
+	}
+	else {
+	    long total = 0;
+	    for (int k=0;k<reader.frames();k++){
+		byte[] s = reader.read(k);
+		int[] population = new int[reader.getSpecies()];
+		for (byte b : s) if (b != 0) population[b-1]++;
+		System.out.printf("%d %.5f",k,reader.time(k));
+		for (int p : population) System.out.print(" " + p);
+		System.out.println(" " + reader.length[k]);
+		total += reader.length[k];
+	    }
+	    System.out.printf("# %d frames, %d bytes compressed, %d bytes raw%n",reader.frames(),total,(long)reader.frames()*n*n);
+	}
+	reader.close();
+    }
+}
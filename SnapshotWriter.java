@@ -0,0 +1,206 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import java.io.*;
+
+/**
+ * Records the lattice of a simulator every k outputs as a compressed stream of frames. A frame holds one byte per site
+ * (species + 1, 0 for empty) XORed with the previous frame, so sites that have not changed are zero, and is then
+ * deflated on its own. Every keyEvery-th frame is stored without the XOR so that a reader can seek to it.
+ *
+ *   header   int magic ("GCAS"), int n, int m, int keyEvery
+ *   frames   deflated bytes of each frame
+ *   index    per frame: double time, long offset, int length
+ *   trailer  int frames, long offset of the index, int magic
+ *
+ * The simulator only copies its lattice into a free buffer; a writer thread encodes and writes the frames. If the
+ * writer falls more than a few frames behind, the simulator waits for it. See SnapshotReader.
+ */
+public class SnapshotWriter implements PopulationObserver, Closeable {
+
+    static final int MAGIC = 0x47434153;
+    static final int BUFFERS = 3;
+    static final double END = Double.NaN;  // time of the frame that stops the writer
+    static ArrayList<SnapshotWriter> open = new ArrayList<SnapshotWriter>();  // closed at exit
+    static int opened;    // snapshot files named by gca.snapshot so far
+
+    CA ca;
+    int n;
+    int every;            // outputs between frames
+    int keyEvery;         // frames between key frames
+    int outputs;
+    DataOutputStream file;
+    long offset;          // bytes written to the file
+    ArrayList<double[]> index = new ArrayList<double[]>();   // time, offset, length of each frame
+    BlockingQueue<byte[]> free = new ArrayBlockingQueue<byte[]>(BUFFERS);
+    BlockingQueue<Object[]> queue = new ArrayBlockingQueue<Object[]>(BUFFERS);  // time, sites
+    Thread writer;
+    volatile IOException failure;
+    boolean closed;
+
+    /**
+     * Opens a snapshot file for a simulator
+     * @param ca        the simulator
+     * @param file      the snapshot file
+     * @param every     outputs between frames
+     * @param keyEvery  frames between key frames
+     * @throws IOException
+     */
+    public SnapshotWriter(CA ca,File file,int every,int keyEvery) throws IOException {
+	this.ca       = ca;
+	this.n        = ca.n;
+	this.every    = every;
+	this.keyEvery = keyEvery;
+	this.file     = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),1 << 16));
+	this.file.writeInt(MAGIC);
+	this.file.writeInt(n);
+	this.file.writeInt(ca.m);
+	this.file.writeInt(keyEvery);
+	offset = 16;
+	for (int i=0;i<BUFFERS;i++) free.add(new byte[n*n]);
+	writer = new Thread(this::write,"snapshot writer");
+	writer.setDaemon(true);  // so an exception in the simulator still ends the JVM, and closeAll runs
+	writer.start();
+    }
+
+    /**
+     * @param ca  the simulator
+     * @return    writer as set by the system properties gca.snapshot (file name; later simulators in the same JVM
+     *            write to file.1, file.2, ...), gca.snapshot.every (default 1) and gca.snapshot.key (default 64), or
+     *            null if gca.snapshot is not set
+     */
+    static SnapshotWriter fromProperties(CA ca){
+	String name = System.getProperty("gca.snapshot");
+	if (name == null) return null;
+	synchronized (SnapshotWriter.class){
+	    if (opened++ > 0) name = name + "." + (opened-1);
+	    try {
+		SnapshotWriter w = new SnapshotWriter(ca,new File(name),Integer.getInteger("gca.snapshot.every",1),Integer.getInteger("gca.snapshot.key",64));
+		if (open.isEmpty()) Runtime.getRuntime().addShutdownHook(new Thread(SnapshotWriter::closeAll));
+		open.add(w);
+		return w;
+	    }
+	    catch (IOException e) {throw new UncheckedIOException(e);}
+	}
+    }
+
+    /**
+     * Closes the writers opened by fromProperties (at exit)
+     */
+    static synchronized void closeAll(){
+	for (SnapshotWriter w : open){
+	    try {w.close();}
+	    catch (IOException e) {e.printStackTrace();}
+	}
+	open.clear();
+    }
+
+    /**
+     * Copies the lattice every k-th output, to be written in the background
+     */
+    public void observe(double time,int[] population,int totalPopulation){
+	if (outputs++ % every != 0) return;
+	check();
+	try {
+	    byte[] sites = free.take();
+	    int[][] A = ca.A;
+	    for (int i=0;i<n;i++)
+		for (int j=0;j<n;j++)
+		    sites[i*n+j] = (byte)(A[i][j] + 1);
+	    queue.put(new Object[]{time,sites});
+	}
+	catch (InterruptedException e) {Thread.currentThread().interrupt();}
+    }
+
+    void check(){
+	if (failure != null) throw new UncheckedIOException(failure);
+    }
+
+    /**
+     * Body of the writer thread: XORs each frame with its predecessor, deflates it and writes it
+     */
+    void write(){
+	byte[] previous = new byte[n*n];
+	byte[] delta    = new byte[n*n];
+	byte[] chunk    = new byte[1 << 16];
+	Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	try {
+	    while (true){
+		Object[] frame = queue.take();
+		double time    = (Double)frame[0];
+		byte[] sites   = (byte[])frame[1];
+		if (Double.isNaN(time)) break;
+		boolean key = index.size() % keyEvery == 0;
+		for (int x=0;x<sites.length;x++) delta[x] = key ? sites[x] : (byte)(sites[x] ^ previous[x]);
+		System.arraycopy(sites,0,previous,0,sites.length);
+		free.put(sites);
+		if (failure != null) continue;  // keep taking frames so the simulator is not blocked
+		try {
+		    deflater.reset();
+		    deflater.setInput(delta);
+		    deflater.finish();
+		    long start = offset;
+		    while (!deflater.finished()){
+			int k = deflater.deflate(chunk);
+			file.write(chunk,0,k);
+			offset += k;
+		    }
+		    index.add(new double[]{time,start,offset - start});
+		}
+		catch (IOException e) {failure = e;}
+	    }
+	}
+	catch (InterruptedException e) {Thread.currentThread().interrupt();}
+	finally {deflater.end();}
+    }
+
+    /**
+     * Waits for the frames in hand to be written, then writes the index and closes the file
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+	if (closed) return;
+	closed = true;
+	try {
+	    queue.put(new Object[]{END,null});
+	    writer.join();
+	}
+	catch (InterruptedException e) {Thread.currentThread().interrupt();}
+	free.clear();
+	if (failure != null){
+	    file.close();
+	    throw failure;
+	}
+	long indexOffset = offset;
+	for (double[] entry : index){
+	    file.writeDouble(entry[0]);
+	    file.writeLong((long)entry[1]);
+	    file.writeInt((int)entry[2]);
+	}
+	file.writeInt(index.size());
+	file.writeLong(indexOffset);
+	file.writeInt(MAGIC);
+	file.close();
+    }
+}
@@ -0,0 +1,245 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.util.stream.IntStream;
+import java.io.*;
+
+/**
+ * Spatial statistics of a simulator, maintained as the lattice changes and reported at each output (show()):
+ *
+ *   <time> pair <a> <b> <g(1)> .. <g(R)>   pair correlation of species a and b at Chebyshev distance 1..R
+ *   <time> crowd <a> <c>                   mean number of occupied Moore neighbours of an individual of species a
+ *   <time> clusters <a> <size>:<count> ..  cluster size distribution of species a (Moore-connected)
+ *
+ * Pair counts are updated on every birth and death at a cost of 4R(R+1) neighbour lookups, so pair correlation and
+ * crowding cost nothing at output time. Clusters do not support deletion cheaply, so they are recomputed from the
+ * lattice every clusterEvery outputs, by union-find over row stripes in parallel.
+ */
+public class SpatialStats implements PopulationObserver {
+
+    static PrintStream shared;  // output file named by the system property gca.stats, shared by all simulators
+
+    CA ca;
+    int n;
+    int m;
+    int range;            // R, largest distance of pair counts
+    int clusterEvery;     // outputs between cluster recomputations, 0 for none
+    int outputs;
+    long[][][] pairs;     // pairs[d-1][a][b] = ordered pairs of sites at distance d occupied by a and b
+    int[] offsetI;        // site offsets at distance 1..R, ring by ring
+    int[] offsetJ;
+    int[] offsetD;
+    int[] parent;         // union-find forest of cluster computation
+    PrintStream out;
+
+    /**
+     * Constructs statistics for a simulator with an empty lattice
+     * @param ca            the simulator
+     * @param range         largest distance of pair counts (reduced to n-1, so that an offset wraps at most once)
+     * @param clusterEvery  outputs between cluster recomputations, 0 for none
+     * @param out           destination of the reports
+     */
+    public SpatialStats(CA ca,int range,int clusterEvery,PrintStream out){
+	this.ca           = ca;
+	this.n            = ca.n;
+	this.m            = ca.m;
+	this.range        = Math.min(range,n-1);
+	this.clusterEvery = clusterEvery;
+	this.out          = out;
+	pairs             = new long[this.range][m][m];
+	int k             = 4*this.range*(this.range+1);
+	offsetI           = new int[k];
+	offsetJ           = new int[k];
+	offsetD           = new int[k];
+	k = 0;
+	for (int d=1;d<=this.range;d++)
+	    for (int di=-d;di<=d;di++)
+		for (int dj=-d;dj<=d;dj++)
+		    if (Math.max(Math.abs(di),Math.abs(dj)) == d){offsetI[k] = di; offsetJ[k] = dj; offsetD[k] = d-1; k++;}
+    }
+
+    /**
+     * @param ca  the simulator
+     * @return    statistics as set by the system properties gca.stats (output file), gca.stats.range (default 2) and
+     *            gca.stats.clusters (default 10), or null if gca.stats is not set; the file is closed at exit
+     */
+    static SpatialStats fromProperties(CA ca){
+	String file = System.getProperty("gca.stats");
+	if (file == null) return null;
+	synchronized (SpatialStats.class){
+	    if (shared == null){
+		try {shared = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)),true);}
+		catch (IOException e) {throw new UncheckedIOException(e);}
+		Runtime.getRuntime().addShutdownHook(new Thread(SpatialStats::closeShared));
+	    }
+	}
+	return new SpatialStats(ca,Integer.getInteger("gca.stats.range",2),Integer.getInteger("gca.stats.clusters",10),shared);
+    }
+
+    /**
+     * Flushes and closes the shared output file (at exit)
+     */
+    static synchronized void closeShared(){
+	if (shared == null) return;
+	synchronized (shared){shared.close();}
+	shared = null;
+    }
+
+    /**
+     * Updates pair counts for a change of site i,j of lattice X (X holds the neighbours' current values)
+     * @param X     CA lattice
+     * @param i     coordinate
+     * @param j     coordinate
+     * @param from  previous value of the site (species or empty)
+     * @param to    new value of the site
+     */
+    void change(int[][] X,int i,int j,int from,int to){
+	for (int k=0;k<offsetI.length;k++){
+	    int y = i + offsetI[k];
+	    int x = j + offsetJ[k];
+	    if (y < 0) y += n; else if (y >= n) y -= n;
+	    if (x < 0) x += n; else if (x >= n) x -= n;
+	    if (y == i && x == j) continue;  // the offset wraps onto the site itself
+	    int s = X[y][x];
+	    if (s == CA.empty) continue;
+	    long[][] p = pairs[offsetD[k]];
+	    if (from != CA.empty){p[from][s]--; p[s][from]--;}
+	    if (to != CA.empty){p[to][s]++; p[s][to]++;}
+	}
+    }
+
+    /**
+     * Recounts the pairs of a lattice that was filled without change() (see CA.rebuild)
+     * @param X  CA lattice
+     */
+    void recount(int[][] X){
+	for (long[][] p : pairs) for (long[] q : p) Arrays.fill(q,0);
+	for (int i=0;i<n;i++)
+	    for (int j=0;j<n;j++){
+		int a = X[i][j];
+		if (a == CA.empty) continue;
+		for (int k=0;k<offsetI.length;k++){
+		    int y = (i + offsetI[k] + n) % n;
+		    int x = (j + offsetJ[k] + n) % n;
+		    if (y == i && x == j) continue;
+		    int b = X[y][x];
+		    if (b != CA.empty) pairs[offsetD[k]][a][b]++;
+		}
+	    }
+    }
+
+    /**
+     * Reports at each output of the simulator
+     */
+    public void observe(double time,int[] population,int totalPopulation){
+	StringBuilder s = new StringBuilder();
+	String t        = String.format("%.5f",time);
+	double sites    = (double)n * n;
+	for (int a=0;a<m;a++)
+	    for (int b=a;b<m;b++){
+		s.append(t).append(" pair ").append(a).append(' ').append(b);
+		for (int d=1;d<=range;d++){
+		    // expected count of ordered pairs at distance d under complete spatial randomness
+		    double expected = 8.0 * d * population[a] * (a == b ? population[a] - 1 : population[b]) / (sites - 1);
+		    s.append(' ').append(expected > 0 ? String.format("%.5f",pairs[d-1][a][b] / expected) : "NaN");
+		}
+		s.append('\n');
+	    }
+	for (int a=0;a<m;a++){
+	    long neighbours = 0;
+	    for (int b=0;b<m;b++) neighbours += pairs[0][a][b];
+	    s.append(t).append(" crowd ").append(a).append(' ');
+	    s.append(population[a] > 0 ? String.format("%.5f",(double)neighbours / population[a]) : "NaN").append('\n');
+	}
+	if (clusterEvery > 0 && outputs % clusterEvery == 0){
+	    List<TreeMap<Integer,Integer>> sizes = clusters();
+	    for (int a=0;a<m;a++){
+		s.append(t).append(" clusters ").append(a);
+		for (Map.Entry<Integer,Integer> e : sizes.get(a).entrySet()) s.append(' ').append(e.getKey()).append(':').append(e.getValue());
+		s.append('\n');
+	    }
+	}
+	outputs++;
+	synchronized (out){out.print(s);}
+    }
+
+    /**
+     * Recomputes the clusters of the current lattice A: union-find within row stripes in parallel, then across stripe
+     * boundaries
+     * @return  per species, cluster size -> number of clusters
+     */
+    List<TreeMap<Integer,Integer>> clusters(){
+	final int[][] A = ca.A;
+	if (parent == null) parent = new int[n*n];
+	int stripes      = Math.max(1,Math.min(n/2,Runtime.getRuntime().availableProcessors()));
+	final int height = (n + stripes - 1) / stripes;
+	IntStream.range(0,stripes).parallel().forEach(k -> {
+		int top    = k*height;
+		int bottom = Math.min(n,top + height);
+		for (int i=top;i<bottom;i++){
+		    for (int j=0;j<n;j++){
+			int x = i*n + j;
+			parent[x] = x;
+			int s = A[i][j];
+			if (j > 0) join(A,s,x,i,j-1);   // left, then the row above within the stripe
+			if (i > top)
+			    for (int dj=-1;dj<=1;dj++) join(A,s,x,i-1,j+dj);
+		    }
+		    join(A,A[i][0],i*n,i,n-1);     // wrap of the row, once all of it is initialised
+		}
+	    });
+	for (int k=0;k<stripes && k*height<n;k++){  // rows above each stripe (row n-1 for the first)
+	    int top   = k*height;
+	    int above = top == 0 ? n-1 : top-1;
+	    for (int j=0;j<n;j++)
+		for (int dj=-1;dj<=1;dj++) join(A,A[top][j],top*n + j,above,j+dj);
+	}
+	int[] size = new int[n*n];
+	for (int x=0;x<n*n;x++)
+	    if (A[x/n][x%n] != CA.empty) size[find(x)]++;
+	List<TreeMap<Integer,Integer>> sizes = new ArrayList<TreeMap<Integer,Integer>>();
+	for (int a=0;a<m;a++) sizes.add(new TreeMap<Integer,Integer>());
+	for (int x=0;x<n*n;x++)
+	    if (size[x] > 0) sizes.get(A[x/n][x%n]).merge(size[x],1,Integer::sum);
+	return sizes;
+    }
+
+    /**
+     * Joins site x (species s) with site i,j (torus) if that holds the same species
+     */
+    void join(int[][] A,int s,int x,int i,int j){
+	if (j < 0) j += n; else if (j >= n) j -= n;
+	if (s == CA.empty || A[i][j] != s) return;
+	int a = find(x);
+	int b = find(i*n + j);
+	if (a < b) parent[b] = a;
+	else if (b < a) parent[a] = b;
+    }
+
+    int find(int x){
+	while (parent[x] != x){
+	    parent[x] = parent[parent[x]];  // path halving
+	    x = parent[x];
+	}
+	return x;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Membership of the sites of an n x n lattice in m species and the empty set, in O(n^2) memory for any m
+ *
+ * One array holds every site, partitioned into contiguous segments for species 0..m-1 followed by the empty sites
+ * (segment m), with a reverse index from site to position. Random selection within a segment is O(1); moving a
+ * site between segments swaps it across the segment boundaries in between, O(m).
+ */
+public class SpeciesIndex {
+
+    static final int EMPTY = -1;
+
+    int[] sites;          // all sites, grouped by segment
+    int[] pos;            // pos[site] = index of site in sites
+    int[] start;          // segment s is sites[start[s]..start[s+1]-1]
+    int free;             // segment of the empty sites (m)
+    Rng random;
+
+    /**
+     * Constructs an index with every site empty
+     * @param sites   number of sites (n*n)
+     * @param m       number of species
+     * @param random  source of random selections
+     */
+    public SpeciesIndex(int sites,int m,Rng random){
+	this.sites  = new int[sites];
+	pos         = new int[sites];
+	start       = new int[m+2];
+	free        = m;
+	this.random = random;
+	for (int x=0;x<sites;x++) this.sites[x] = pos[x] = x;
+	start[m+1]  = sites;
+    }
+
+    /**
+     * Regroups every site by the species at it, by counting sort (one pass to count, one to place)
+     * @param A  n x n lattice, species or EMPTY at each site
+     */
+    void rebuild(int[][] A){
+	int n = A.length;
+	java.util.Arrays.fill(start,0);
+	for (int[] row : A)
+	    for (int s : row) start[(s == EMPTY ? free : s) + 1]++;
+	for (int s=1;s<start.length;s++) start[s] += start[s-1];
+	int[] next = start.clone();
+	for (int x=0;x<sites.length;x++){
+	    int s = A[x/n][x%n];
+	    int k = next[s == EMPTY ? free : s]++;
+	    sites[k] = x;
+	    pos[x]   = k;
+	}
+    }
+
+    /**
+     * @param s  species, or free for the empty sites
+     * @return   number of sites in segment s
+     */
+    int size(int s){return start[s+1] - start[s];}
+
+    /**
+     * @param s  species, or free for the empty sites
+     * @return   a random site of segment s, EMPTY if there is none
+     */
+    int select(int s){
+	int size = start[s+1] - start[s];
+	if (size == 0) return EMPTY;
+	return sites[start[s] + random.nextInt(size)];
+    }
+
+    /**
+     * Moves a site from one segment to another
+     * @param x     the site
+     * @param from  its current segment
+     * @param to    its new segment
+     */
+    void move(int x,int from,int to){
+	int i = pos[x];
+	for (int s=from;s<to;s++){      // to the end of segment s, which then gives up its last place
+	    int last = start[s+1] - 1;
+	    swap(i,last);
+	    start[s+1]--;
+	    i = last;
+	}
+	for (int s=from;s>to;s--){      // to the front of segment s, which then gives up its first place
+	    int first = start[s];
+	    swap(i,first);
+	    start[s]++;
+	    i = first;
+	}
+    }
+
+    void swap(int i,int k){
+	int x    = sites[i];
+	int y    = sites[k];
+	sites[i] = y;
+	sites[k] = x;
+	pos[y]   = i;
+	pos[x]   = k;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.util.stream.IntStream;
+import java.io.*;
+
+/**
+ * Estimates the probability of a rare event before maxTime, the population of a species (or the total) falling to a
+ * level (extinction at 0) or rising to one (invasion), by fixed effort multilevel splitting: with intermediate levels
+ * L1 .. LK, a stage of N trajectories is run from the states that reached the previous level (from the initial state
+ * for the first) until each reaches the next level or maxTime. The states at which the next level was reached are
+ * cloned into the starting states of the following stage, the others are dropped, and the probability is estimated
+ * as the product of the fractions reaching each level.
+ *
+ * Levels are checked at output times (every timestep), so states are cloned at output times: a clone is a fresh
+ * simulator with a copy of the lattice (CA.setLattice), its clock set to the output time, and a seed of its own. For
+ * an absorbing final level such as extinction this is the same event as in continuous time.
+ */
+public class Splitting {
+
+    SimConfig config;
+    int quantity;           // species whose population is scored, or -1 for the total
+    int[] levels;           // L1 .. LK, decreasing (extinction) or increasing (invasion)
+    boolean down;           // true <-> levels are reached from above
+    int effort;             // trajectories per stage
+    SplittableRandom seeds; // seed of every trajectory
+
+    /**
+     * A state reached at an output time
+     */
+    static class State {
+	int[][] lattice;
+	double time;
+	State(int[][] lattice,double time){this.lattice = lattice; this.time = time;}
+    }
+
+    /**
+     * @param config    the run, from its initial population to maxTime
+     * @param quantity  species to score, or -1 for the total population
+     * @param levels    levels to reach in turn, the last one being the rare event
+     * @param effort    number of trajectories per stage
+     * @param seed      seed of the trajectories
+     */
+    public Splitting(SimConfig config,int quantity,int[] levels,int effort,long seed){
+	this.config   = config;
+	this.quantity = quantity;
+	this.levels   = levels;
+	this.effort   = effort;
+	seeds         = new SplittableRandom(seed);
+	int start     = quantity < 0 ? Arrays.stream(config.initPopn).sum() : config.initPopn[quantity];
+	down          = levels[levels.length-1] < start;
+	for (int k=0;k<levels.length;k++)
+	    if (down ? levels[k] >= (k == 0 ? start : levels[k-1]) : levels[k] <= (k == 0 ? start : levels[k-1]))
+		throw new IllegalArgumentException("levels must move monotonically away from the initial population " + start);
+    }
+
+    /**
+     * Runs a trajectory until it reaches a level or maxTime
+     * @param from   starting state, or null for the initial population
+     * @param level  the level to reach
+     * @param seed   seed of the trajectory
+     * @return       the state at the first output at which the level was reached, or null
+     */
+    State trajectory(State from,int level,long seed){
+	SimConfig run = config.withSeed(seed);
+	CA ca = from == null ? run.build() : run.build(from.lattice);
+	if (from != null) ca.setTime(from.time);
+	State[] hit = new State[1];
+	ca.addObserver((time,population,totalPopulation) -> {
+		int score = quantity < 0 ? totalPopulation : population[quantity];
+		if (hit[0] != null || (down ? score > level : score < level)) return;
+		int[][] lattice = new int[ca.n][];
+		for (int i=0;i<ca.n;i++) lattice[i] = ca.A[i].clone();
+		hit[0] = new State(lattice,time);
+		ca.stop();
+	    });
+	if (reached(ca,level)) return from;  // an earlier stage jumped past this level too
+	ca.runUntil(config.maxTime);
+	return hit[0];
+    }
+
+    /**
+     * @return  true if the simulator's current state is at the level already
+     */
+    boolean reached(CA ca,int level){
+	int score = quantity < 0 ? ca.getPopulation() : ca.getPopulation(quantity);
+	return down ? score <= level : score >= level;
+    }
+
+    /**
+     * Runs the stages, writing a line "# level <L> <reached>/<effort> <fraction>" per stage and then
+     * "<probability> <relativeError> <trajectories>"; the relative error assumes independent stages
+     * @param out  destination of the report
+     * @return     the estimated probability
+     */
+    double run(PrintStream out){
+	List<State> states = Collections.singletonList(null);
+	double probability = 1.0, relativeVariance = 0.0;
+	int trajectories = 0;
+	for (int level : levels){
+	    long[] seed = new long[effort];
+	    for (int t=0;t<effort;t++) seed[t] = seeds.nextLong();
+	    List<State> from = states;  // fixed effort: starting states are used in turn
+	    State[] hits = new State[effort];
+	    IntStream.range(0,effort).parallel().forEach(t -> hits[t] = trajectory(from.get(t % from.size()),level,seed[t]));
+	    states = new ArrayList<State>();
+	    for (State s : hits) if (s != null) states.add(s);
+	    trajectories += effort;
+	    double fraction = (double)states.size() / effort;
+	    out.printf("# level %d %d/%d %.6f%n",level,states.size(),effort,fraction);
+	    probability *= fraction;
+	    if (states.isEmpty()) break;
+	    relativeVariance += (1 - fraction) / (effort * fraction);
+	}
+	out.printf("%.6e %.4f %d%n",probability,probability > 0 ? Math.sqrt(relativeVariance) : Double.NaN,trajectories);
+	return probability;
+    }
+
+    /**
+     * Main method - arguments from command line:
+     *   <effort> <seed> <species|total> <L1,L2,..> <algorithm> <GridSize> <maxTime> <timeStep> {<initPopnSize> <bRate> <dRate>}
+     * @param args  command line e.g.: java Splitting 1000 1 0 20,10,5,0 Gill 20 50 0.5 40 0.3 0.2
+     */
+    public static void main(String[] args) {
+	int effort      = Integer.parseInt(args[0]);
+	long seed       = Long.parseLong(args[1]);
+	int quantity    = args[2].equals("total") ? -1 : Integer.parseInt(args[2]);
+	int[] levels    = Arrays.stream(args[3].split(",")).mapToInt(Integer::parseInt).toArray();
+	SimConfig config = SimConfig.parse(args[4],Arrays.copyOfRange(args,5,args.length));
+	new Splitting(config,quantity,levels,effort,seed).run(System.out);
+	System.exit(0);
+    }
+}
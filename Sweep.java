@@ -0,0 +1,248 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/**
+ * Parameter sweep: expands a declarative parameter space into runs and executes them in-process on a work-stealing pool
+ *
+ * A sweep file holds one "key = values" line per parameter, values separated by spaces, # for comments:
+ *
+ *   mode       = grid                  (grid: all combinations, list: the i-th value of every key together)
+ *   algorithm  = Gill RFd2S RR1M
+ *   n          = 100 200
+ *   maxTime    = 1000
+ *   tau        = 0.1
+ *   popn1      = 30                    (popnK, birthK, deathK for species K = 1,2,...)
+ *   birth1     = 0.2 0.3
+ *   death1     = 0.15
+ *   replicates = 10
+ *   seed       = 1                     (optional: replicate r runs with seed+r, so results are reproducible)
+ *   cache      = cacheDir 1024         (optional: result cache directory and its size in MB, for seeded runs)
+ *
+ * In list mode a key with a single value applies to every point.
+ */
+public class Sweep {
+
+    String mode;
+    int replicates;
+    LinkedHashMap<String,String[]> space;  // parameter name -> values, in the order of the file
+    ArrayList<SimConfig> points;           // expanded parameter points
+    ResultCache cache;                     // null <-> no caching
+
+    /**
+     * Reads a sweep file
+     * @param file  the sweep file
+     * @throws IOException
+     */
+    public Sweep(File file) throws IOException {
+	mode       = "grid";
+	replicates = 1;
+	space      = new LinkedHashMap<String,String[]>();
+	BufferedReader in = new BufferedReader(new FileReader(file));
+	String line;
+	while ((line = in.readLine()) != null){
+	    int hash = line.indexOf('#');
+	    if (hash >= 0) line = line.substring(0,hash);
+	    if (line.trim().isEmpty()) continue;
+	    int eq = line.indexOf('=');
+	    if (eq < 0) throw new IllegalArgumentException("expected key = values: " + line);
+	    String key      = line.substring(0,eq).trim();
+	    String[] values = line.substring(eq+1).trim().split("\\s+");
+	    if (key.equals("mode")) mode = values[0];
+	    else if (key.equals("replicates")) replicates = Integer.parseInt(values[0]);
+	    else if (key.equals("cache")) cache = new ResultCache(new File(values[0]),Long.parseLong(values[1]) << 20);
+	    else space.put(key,values);
+	}
+	in.close();
+	points = expand();
+    }
+
+    /**
+     * Expands the parameter space into points, as a grid (cartesian product) or a list (zipped values)
+     * @return  the parameter points
+     */
+    ArrayList<SimConfig> expand(){
+	String[] keys = space.keySet().toArray(new String[0]);
+	ArrayList<SimConfig> result = new ArrayList<SimConfig>();
+	if (mode.equals("list")){
+	    int length = 1;
+	    for (String key : keys){
+		int l = space.get(key).length;
+		if (l > 1 && length > 1 && l != length) throw new IllegalArgumentException("list lengths differ at " + key);
+		length = Math.max(length,l);
+	    }
+	    for (int p=0;p<length;p++){
+		HashMap<String,String> point = new HashMap<String,String>();
+		for (String key : keys){
+		    String[] values = space.get(key);
+		    point.put(key,values[values.length == 1 ? 0 : p]);
+		}
+		result.add(config(point));
+	    }
+	}
+	else if (mode.equals("grid")){
+	    int[] index = new int[keys.length];  // odometer over the value lists
+	    while (true){
+		HashMap<String,String> point = new HashMap<String,String>();
+		for (int k=0;k<keys.length;k++) point.put(keys[k],space.get(keys[k])[index[k]]);
+		result.add(config(point));
+		int k = keys.length-1;
+		while (k >= 0 && ++index[k] == space.get(keys[k]).length) index[k--] = 0;
+		if (k < 0) break;
+	    }
+	}
+	else throw new IllegalArgumentException("unknown mode " + mode);
+	return result;
+    }
+
+    /**
+     * Builds a configuration from one point of the parameter space
+     * @param point  parameter name -> value
+     * @return       the configuration
+     */
+    static SimConfig config(HashMap<String,String> point){
+	int m = 0;
+	while (point.containsKey("popn" + (m+1))) m++;
+	SimConfig config = new SimConfig(value(point,"algorithm"),Integer.parseInt(value(point,"n")),
+					 Integer.parseInt(value(point,"maxTime")),Double.parseDouble(value(point,"tau")),m);
+	for (int species=0;species<m;species++){
+	    config.initPopn[species] = Integer.parseInt(value(point,"popn" + (species+1)));
+	    config.bRate[species]    = Double.parseDouble(value(point,"birth" + (species+1)));
+	    config.dRate[species]    = Double.parseDouble(value(point,"death" + (species+1)));
+	}
+	if (point.containsKey("seed")){
+	    config.seeded = true;
+	    config.seed   = Long.parseLong(point.get("seed"));
+	}
+	return config.properties();
+    }
+
+    static String value(HashMap<String,String> point,String key){
+	String v = point.get(key);
+	if (v == null) throw new IllegalArgumentException("missing parameter " + key);
+	return v;
+    }
+
+    /**
+     * Runs every point for every replicate on a work-stealing pool, longest runs first, streaming to out
+     * @param out      the output store, each line prefixed with point and replicate numbers (lines of concurrent runs
+     *                 interleave)
+     * @param threads  number of worker threads
+     * @throws InterruptedException
+     */
+    void run(final PrintStream out,int threads) throws InterruptedException {
+	for (int p=0;p<points.size();p++) out.println("# " + p +" "+ points.get(p));
+	ArrayList<Task> tasks = new ArrayList<Task>();
+	for (int p=0;p<points.size();p++)
+	    for (int r=0;r<replicates;r++) tasks.add(new Task(p,r,out));
+	Collections.sort(tasks);
+	// asyncMode gives FIFO order on the queues, so the longest tasks are started (and stolen) first
+	ForkJoinPool pool = new ForkJoinPool(threads,ForkJoinPool.defaultForkJoinWorkerThreadFactory,null,true);
+	for (Task task : tasks) pool.execute(task);
+	for (Task task : tasks) task.join();
+	pool.shutdown();
+	out.flush();
+    }
+
+    /**
+     * Runs a single replicate of a parameter point (through the cache, if any), writing its output line by line as it
+     * arrives
+     * @param point      parameter point number
+     * @param replicate  replicate number
+     * @param out        destination of the output, each line prefixed with point and replicate numbers and written
+     *                   under the lock of out, so that runs sharing it interleave whole lines
+     * @throws IOException  from the cache
+     */
+    void run(int point,int replicate,PrintStream out) throws IOException {
+	SimConfig config = points.get(point);
+	if (config.seeded) config = config.withSeed(config.seed + replicate);
+	PrintStream rows = new PrintStream(new Rows(out,point +" "+ replicate +" "));
+	if (cache != null) cache.run(config,rows);
+	else config.run(rows);
+	rows.flush();
+    }
+
+    /**
+     * Passes complete lines to a shared stream, each with a prefix and under the stream's lock
+     */
+    static class Rows extends OutputStream {
+
+	PrintStream out;
+	byte[] prefix;
+	ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+	Rows(PrintStream out,String prefix){
+	    this.out    = out;
+	    this.prefix = prefix.getBytes();
+	}
+
+	public void write(int b){
+	    line.write(b);
+	    if (b != '\n') return;
+	    synchronized (out){
+		out.write(prefix,0,prefix.length);
+		out.write(line.toByteArray(),0,line.size());
+	    }
+	    line.reset();
+	}
+    }
+
+    /**
+     * A single replicate of a parameter point
+     */
+    class Task extends RecursiveAction implements Comparable<Task> {
+
+	private static final long serialVersionUID = 1L;
+
+	int point;
+	int replicate;
+	PrintStream out;
+
+	Task(int point,int replicate,PrintStream out){
+	    this.point     = point;
+	    this.replicate = replicate;
+	    this.out       = out;
+	}
+
+	protected void compute(){
+	    try {run(point,replicate,out);}
+	    catch (IOException e) {throw new UncheckedIOException(e);}
+	}
+
+	public int compareTo(Task other){return Double.compare(points.get(other.point).cost(),points.get(point).cost());}
+    }
+
+    /**
+     * Main method - arguments from command line: <sweepFile> <outputFile> {<threads>}
+     * @param args  command line e.g.: java Sweep sweep.txt results.txt 8
+     */
+    public static void main(String[] args) throws Exception {
+	Sweep sweep  = new Sweep(new File(args[0]));
+	int threads  = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+	PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(args[1])));
+	sweep.run(out,threads);
+	out.close();
+	System.exit(0);
+    }
+}
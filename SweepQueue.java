@@ -0,0 +1,302 @@
+/*
+*        gillespie-cellular-automaton
+*        A program for simulating birth-death processes for multiple species in discrete space. It contains code for the
+*        a continuous time (spatial Gillespie) simulator and several discrete time (cellular automaton) simulators.
+*
+*        Copyright (C) 2013 Patrick Prosser <Patrick.Prosser@glasgow.ac.uk>, Rebecca Mancy <Rebecca.Mancy@glasgow.ac.uk>
+*
+*        This program is free software: you can redistribute it and/or modify
+*        it under the terms of the GNU General Public License as published by
+*        the Free Software Foundation, either version 3 of the License, or
+*        (at your option) any later version.
+*
+*        This program is distributed in the hope that it will be useful,
+*        but WITHOUT ANY WARRANTY; without even the implied warranty of
+*        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*        GNU General Public License for more details.
+*
+*        You should have received a copy of the GNU General Public License
+*        along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Sweep over several worker processes, possibly on several nodes, coordinated through a directory that they share:
+ *
+ *   plan            the sweep file
+ *   todo/           shards waiting to be run, named s<shard>.a<attempt>, holding one "<point> <replicate>" line per run
+ *   running/        shards claimed by a worker, s<shard>.a<attempt>.<worker>; the worker touches the file as a heartbeat
+ *   parts/          results of each attempt at a shard, s<shard>.a<attempt>
+ *   done/           completed shards
+ *   failed/         shards that failed on every attempt
+ *
+ * A worker claims a shard by renaming it from todo/ to running/, which only one worker can do. Each run's output is
+ * appended to the attempt's part file and ended with "# done <point> <replicate>", so a shard that is retried skips
+ * the runs that an earlier attempt completed. A shard whose worker has died or stopped sending heartbeats is renamed
+ * back to todo/ as the next attempt, by the coordinator or by an idle worker. Merging picks one completed output per
+ * run from the part files and writes them in the format of Sweep.
+ */
+public class SweepQueue {
+
+    static long heartbeat = 5000;         // ms between heartbeats
+    static long poll      = 1000;         // ms between checks by the coordinator and idle workers
+    static long timeout   = Long.getLong("gca.queue.timeout",60000);  // ms without a heartbeat before a shard is retried
+    static int attempts   = 3;            // attempts at a shard before it fails
+
+    File dir;
+    Sweep sweep;
+    String worker;        // identity of this process, <host>-<pid>
+
+    /**
+     * Opens a queue directory
+     * @param dir  the queue directory
+     * @throws IOException
+     */
+    public SweepQueue(File dir) throws IOException {
+	this.dir = dir;
+	sweep    = new Sweep(new File(dir,"plan"));
+	worker   = InetAddress.getLocalHost().getHostName().replace('.','_') + "-" + ProcessHandle.current().pid();
+    }
+
+    File dir(String name){return new File(dir,name);}
+
+    /**
+     * Creates a queue directory for a sweep, with the runs dealt round robin into shards in order of decreasing cost
+     * @param plan    the sweep file
+     * @param dir     the queue directory, which must not exist
+     * @param shards  number of shards
+     * @throws IOException
+     */
+    static void create(File plan,File dir,int shards) throws IOException {
+	for (String d : new String[]{"todo","running","parts","done","failed"}) Files.createDirectories(new File(dir,d).toPath());
+	Sweep sweep = new Sweep(plan);
+	ArrayList<int[]> runs = new ArrayList<int[]>();
+	for (int p=0;p<sweep.points.size();p++)
+	    for (int r=0;r<sweep.replicates;r++) runs.add(new int[]{p,r});
+	runs.sort((a,b) -> Double.compare(sweep.points.get(b[0]).cost(),sweep.points.get(a[0]).cost()));
+	StringBuilder[] shard = new StringBuilder[Math.min(shards,runs.size())];
+	for (int k=0;k<shard.length;k++) shard[k] = new StringBuilder();
+	for (int k=0;k<runs.size();k++) shard[k % shard.length].append(runs.get(k)[0]).append(' ').append(runs.get(k)[1]).append('\n');
+	for (int k=0;k<shard.length;k++) Files.writeString(new File(dir,String.format("todo/s%05d.a1",k)).toPath(),shard[k]);
+	Files.copy(plan.toPath(),new File(dir,"plan").toPath());  // last, so an incomplete queue is not opened
+    }
+
+    /**
+     * Claims a waiting shard
+     * @return  the shard's file in running/, or null if there is none
+     */
+    File claim(){
+	String[] waiting = dir("todo").list();
+	if (waiting == null) return null;
+	Arrays.sort(waiting);
+	for (String name : waiting){
+	    File claimed = new File(dir("running"),name + "." + worker);
+	    try {
+		Files.move(new File(dir("todo"),name).toPath(),claimed.toPath(),StandardCopyOption.ATOMIC_MOVE);
+		return claimed;
+	    }
+	    catch (IOException e) {}  // claimed by another worker
+	}
+	return null;
+    }
+
+    /**
+     * Puts a claimed shard back as its next attempt, or into failed/ after the last attempt (unless another process
+     * has already done so)
+     * @param claimed  the shard's file in running/
+     */
+    void requeue(File claimed){
+	String[] name = claimed.getName().split("\\.",3);
+	int attempt   = Integer.parseInt(name[1].substring(1));
+	File to = attempt < attempts ? new File(dir("todo"),name[0] + ".a" + (attempt+1)) : new File(dir("failed"),name[0]);
+	try {Files.move(claimed.toPath(),to.toPath(),StandardCopyOption.ATOMIC_MOVE);}
+	catch (IOException e) {}
+    }
+
+    /**
+     * Requeues the shards whose workers have stopped sending heartbeats, or have exited
+     * @param exited  identities of workers known to have exited
+     */
+    void requeueStale(Set<String> exited){
+	File[] running = dir("running").listFiles();
+	if (running == null) return;
+	long now = System.currentTimeMillis();
+	for (File claimed : running){
+	    String[] name = claimed.getName().split("\\.",3);
+	    if (exited.contains(name[2]) || now - claimed.lastModified() > timeout) requeue(claimed);
+	}
+    }
+
+    boolean finished(){
+	String[] todo = dir("todo").list(), running = dir("running").list();
+	return todo != null && todo.length == 0 && running != null && running.length == 0;
+    }
+
+    /**
+     * Reads the completed runs of the part files of a shard (of all shards if shard is null)
+     * @param shard  s<shard>, or null
+     * @return       "<point> <replicate>" -> output
+     * @throws IOException
+     */
+    TreeMap<String,String> completed(String shard) throws IOException {
+	TreeMap<String,String> done = new TreeMap<String,String>();
+	File[] parts = dir("parts").listFiles();
+	Arrays.sort(parts);
+	for (File part : parts){
+	    if (shard != null && !part.getName().startsWith(shard + ".")) continue;
+	    StringBuilder block = new StringBuilder();
+	    for (String line : Files.readAllLines(part.toPath())){
+		if (line.startsWith("# done ")){
+		    done.putIfAbsent(line.substring(7),block.toString());
+		    block.setLength(0);
+		}
+		else block.append(line).append('\n');
+	    }  // an unterminated block is from an interrupted run
+	}
+	return done;
+    }
+
+    /**
+     * Runs a claimed shard, skipping runs completed by earlier attempts, while a thread sends heartbeats
+     * @param claimed  the shard's file in running/
+     * @throws IOException  if a run fails
+     */
+    void run(File claimed) throws IOException {
+	String[] name = claimed.getName().split("\\.",3);
+	Set<String> done = completed(name[0]).keySet();
+	Thread beat = new Thread(() -> {
+		try {
+		    while (true){
+			Thread.sleep(heartbeat);
+			Files.setLastModifiedTime(claimed.toPath(),FileTime.fromMillis(System.currentTimeMillis()));
+		    }
+		}
+		catch (InterruptedException | IOException e) {}  // stopped, or the shard was requeued
+	    });
+	beat.setDaemon(true);
+	beat.start();
+	FileOutputStream file = new FileOutputStream(new File(dir("parts"),name[0] + "." + name[1]),true);
+	try (PrintStream part = new PrintStream(new BufferedOutputStream(file))){
+	    for (String run : Files.readAllLines(claimed.toPath())){
+		if (run.isEmpty() || done.contains(run)) continue;
+		String[] pr = run.split(" ");
+		sweep.run(Integer.parseInt(pr[0]),Integer.parseInt(pr[1]),part);
+		part.print("# done " + run + "\n");
+		part.flush();
+		if (part.checkError()) throw new IOException("cannot write the part file of " + name[0]);
+		file.getFD().sync();  // checkpoint
+	    }
+	}
+	finally {beat.interrupt();}
+	try {Files.move(claimed.toPath(),new File(dir("done"),name[0]).toPath(),StandardCopyOption.ATOMIC_MOVE);}
+	catch (IOException e) {}  // requeued meanwhile: the next attempt will find every run completed
+    }
+
+    /**
+     * Worker: runs shards until none are waiting or running
+     * @throws Exception
+     */
+    void work() throws Exception {
+	while (true){
+	    File claimed = claim();
+	    if (claimed == null){
+		if (finished()) return;
+		requeueStale(Collections.<String>emptySet());
+		Thread.sleep(poll);
+		continue;
+	    }
+	    try {run(claimed);}
+	    catch (Exception e) {
+		System.err.println(worker + ": " + claimed.getName() + ": " + e);
+		requeue(claimed);
+	    }
+	}
+    }
+
+    /**
+     * Coordinator: keeps the given number of local workers running until every shard is done or failed, requeueing the
+     * shards of workers that exit or stop sending heartbeats
+     * @param workers  number of local worker processes
+     * @throws Exception
+     */
+    void coordinate(int workers) throws Exception {
+	String java = ProcessHandle.current().info().command().orElse("java");
+	ArrayList<String> command = new ArrayList<String>();
+	command.add(java);
+	for (String key : System.getProperties().stringPropertyNames())  // settings that change the results
+	    if (key.startsWith("gca.")) command.add("-D" + key + "=" + System.getProperty(key));
+	command.addAll(Arrays.asList("-cp",System.getProperty("java.class.path"),"SweepQueue","worker",dir.getPath()));
+	Process[] process = new Process[workers];
+	HashSet<String> exited = new HashSet<String>();
+	while (!finished()){
+	    for (int k=0;k<workers;k++)
+		if (process[k] == null || !process[k].isAlive()){
+		    if (process[k] != null) exited.add(worker.substring(0,worker.lastIndexOf('-')+1) + process[k].pid());
+		    process[k] = new ProcessBuilder(command).redirectErrorStream(true)
+			.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(dir,"worker" + k + ".log"))).start();
+		}
+	    requeueStale(exited);
+	    Thread.sleep(poll);
+	}
+	for (Process p : process) p.waitFor();
+    }
+
+    /**
+     * Merges the completed runs into an output file in the format of Sweep
+     * @param out  destination of the output
+     * @return     number of runs missing (from failed shards)
+     * @throws IOException
+     */
+    int merge(PrintStream out) throws IOException {
+	TreeMap<String,String> done = completed(null);
+	int missing = 0;
+	for (int p=0;p<sweep.points.size();p++) out.println("# " + p +" "+ sweep.points.get(p));
+	for (int p=0;p<sweep.points.size();p++)
+	    for (int r=0;r<sweep.replicates;r++){
+		String block = done.get(p +" "+ r);
+		if (block != null) out.print(block);
+		else {out.println("# missing " + p +" "+ r); missing++;}
+	    }
+	out.flush();
+	return missing;
+    }
+
+    /**
+     * Main method - arguments from command line:
+     *   <sweepFile> <queueDir> <outputFile> {<workers> {<shards>}}   create (or resume) a queue, run it and merge
+     *   worker <queueDir>                                             run shards, e.g. on another node
+     *   merge <queueDir> <outputFile>                                 merge the results so far
+     * @param args  command line e.g.: java SweepQueue sweep.txt /shared/queue results.txt 8
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+	if (args[0].equals("worker")){
+	    new SweepQueue(new File(args[1])).work();
+	    System.exit(0);
+	}
+	int missing;
+	if (args[0].equals("merge")){
+	    PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(args[2])));
+	    missing = new SweepQueue(new File(args[1])).merge(out);
+	    out.close();
+	}
+	else {
+	    File dir    = new File(args[1]);
+	    int workers = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+	    int shards  = args.length > 4 ? Integer.parseInt(args[4]) : 4 * workers;
+	    if (!new File(dir,"plan").exists()) create(new File(args[0]),dir,shards);
+	    SweepQueue queue = new SweepQueue(dir);
+	    queue.coordinate(workers);
+	    PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(args[2])));
+	    missing = queue.merge(out);
+	    out.close();
+	}
+	if (missing > 0) System.err.println(missing + " runs missing");
+	System.exit(missing > 0 ? 1 : 0);
+    }
+}